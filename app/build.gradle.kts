@@ -18,7 +18,8 @@ android {
         // دعم اللغة العربية RTL
         resourceConfigurations += listOf("ar", "en")
 
-        testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+        // مقاييس الأداء في androidTest تحتاج مشغّل Microbenchmark
+        testInstrumentationRunner = "androidx.benchmark.junit4.AndroidBenchmarkRunner"
         vectorDrawables {
             useSupportLibrary = true
         }
@@ -40,7 +41,17 @@ android {
             // توقيع الإصدار (يُضاف لاحقاً)
             // signingConfig = signingConfigs.getByName("release")
         }
+        // نسخة الإصدار دون تصغير أو تصحيح، تُشغَّل عليها مقاييس الأداء
+        create("benchmark") {
+            initWith(getByName("release"))
+            applicationIdSuffix = ".benchmark"
+            isMinifyEnabled = false
+            isShrinkResources = false
+            signingConfig = signingConfigs.getByName("debug")
+            matchingFallbacks += listOf("release")
+        }
     }
+    testBuildType = "benchmark"
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_17
         targetCompatibility = JavaVersion.VERSION_17
@@ -117,6 +128,7 @@ dependencies {
     testImplementation(libs.junit)
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
+    androidTestImplementation(libs.androidx.benchmark.junit4)
     androidTestImplementation(platform(libs.androidx.compose.bom))
     androidTestImplementation(libs.androidx.ui.test.junit4)
     debugImplementation(libs.androidx.ui.tooling)
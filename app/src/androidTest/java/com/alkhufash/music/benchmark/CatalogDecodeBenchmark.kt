@@ -0,0 +1,166 @@
+package com.alkhufash.music.benchmark
+
+import android.database.Cursor
+import android.os.Bundle
+import android.util.Log
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.alkhufash.music.data.db.SongEntity
+import com.alkhufash.music.data.db.toSong
+import com.alkhufash.music.data.index.SongIndex
+import com.alkhufash.music.data.index.StringPool
+import com.alkhufash.music.data.model.MediaStoreHelper
+import com.alkhufash.music.domain.model.Song
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+
+/**
+ * Cost of turning catalog rows into the in-memory library: decoding Room
+ * entities and MediaStore cursor rows with and without the string pool,
+ * building the index over them, and the heap the decoded songs keep alive
+ * either way.
+ */
+@LargeTest
+@RunWith(Parameterized::class)
+class CatalogDecodeBenchmark(private val size: Int) {
+
+    companion object {
+        private const val TAG = "CatalogDecodeBenchmark"
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "songs={0}")
+        fun sizes() = listOf(1_000, 10_000, 100_000)
+    }
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private lateinit var rows: List<SongEntity>
+
+    @Before
+    fun setUp() {
+        // Copy the metadata strings so rows don't already share them, as rows
+        // read from a cursor don't
+        rows = SyntheticLibrary.songs(size).map {
+            it.copy(artist = String(it.artist.toCharArray()), album = String(it.album.toCharArray()))
+        }
+    }
+
+    @Test
+    fun decodePooled() {
+        benchmarkRule.measureRepeated {
+            val pool = StringPool()
+            rows.map { it.toSong(pool) }
+        }
+    }
+
+    @Test
+    fun decodeUnpooled() {
+        benchmarkRule.measureRepeated {
+            rows.map { it.toSong() }
+        }
+    }
+
+    @Test
+    fun decodeCursorPooled() {
+        benchmarkRule.measureRepeated {
+            val cursor = runWithTimingDisabled { MediaStoreCursor(rows) }
+            cursor.use { MediaStoreHelper.decodeSongs(it) }
+        }
+    }
+
+    // A String per value and row, as the scanner decoded before the string pool
+    @Test
+    fun decodeCursorUnpooled() {
+        benchmarkRule.measureRepeated {
+            val cursor = runWithTimingDisabled { MediaStoreCursor(rows) }
+            cursor.use { decodeWithoutPool(it) }
+        }
+    }
+
+    @Test
+    fun buildIndex() {
+        val songs = rows.map { it.toSong() }
+        benchmarkRule.measureRepeated {
+            SongIndex.build(songs)
+        }
+    }
+
+    @Test
+    fun buildColumnarIndex() {
+        val songs = rows.map { it.toSong() }
+        benchmarkRule.measureRepeated {
+            SongIndex.build(songs, columnar = true)
+        }
+    }
+
+    // Not a timed benchmark: reports the bytes each decode keeps reachable
+    @Test
+    fun retainedHeap() {
+        val pooled = retainedBytes { StringPool().let { pool -> rows.map { it.toSong(pool) } } }
+        val unpooled = retainedBytes { rows.map { it.toSong() } }
+        val cursorPooled = retainedBytes { MediaStoreCursor(rows).use { MediaStoreHelper.decodeSongs(it) } }
+        val cursorUnpooled = retainedBytes { MediaStoreCursor(rows).use { decodeWithoutPool(it) } }
+        Log.i(
+            TAG,
+            "songs=$size retained pooled=$pooled unpooled=$unpooled " +
+                "cursorPooled=$cursorPooled cursorUnpooled=$cursorUnpooled"
+        )
+        InstrumentationRegistry.getInstrumentation().sendStatus(
+            0,
+            Bundle().apply {
+                putLong("retainedBytesPooled", pooled)
+                putLong("retainedBytesUnpooled", unpooled)
+                putLong("retainedBytesCursorPooled", cursorPooled)
+                putLong("retainedBytesCursorUnpooled", cursorUnpooled)
+            }
+        )
+    }
+
+    private fun decodeWithoutPool(cursor: Cursor): List<Song> {
+        val songs = ArrayList<Song>(cursor.count)
+        while (cursor.moveToNext()) {
+            songs.add(
+                Song(
+                    id = cursor.getLong(0),
+                    title = cursor.getString(1) ?: "Unknown",
+                    artist = cursor.getString(2) ?: "Unknown Artist",
+                    artistId = cursor.getLong(3),
+                    album = cursor.getString(4) ?: "Unknown Album",
+                    albumId = cursor.getLong(5),
+                    duration = cursor.getLong(6),
+                    path = cursor.getString(7) ?: "",
+                    size = cursor.getLong(8),
+                    dateAdded = cursor.getLong(9),
+                    dateModified = cursor.getLong(10),
+                    trackNumber = cursor.getInt(11),
+                    year = cursor.getInt(12)
+                )
+            )
+        }
+        return songs
+    }
+
+    private inline fun retainedBytes(decode: () -> List<Song>): Long {
+        val before = usedHeap()
+        val songs = decode()
+        val after = usedHeap()
+        // Keep the result reachable until after the second measurement
+        check(songs.size == size)
+        return after - before
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) {
+            runtime.gc()
+            System.runFinalization()
+        }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
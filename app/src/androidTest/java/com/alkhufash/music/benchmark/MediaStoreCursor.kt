@@ -0,0 +1,40 @@
+package com.alkhufash.music.benchmark
+
+import android.database.CharArrayBuffer
+import android.database.MatrixCursor
+import com.alkhufash.music.data.db.SongEntity
+import com.alkhufash.music.data.model.MediaStoreHelper
+
+/**
+ * [songs] as MediaStore would return them for [MediaStoreHelper.SONG_PROJECTION].
+ * Like a cursor over a CursorWindow, every getString allocates a new String
+ * while copyStringToBuffer copies characters without one; a plain MatrixCursor
+ * would hand back the same instances and hide what the string pool saves.
+ */
+class MediaStoreCursor(songs: List<SongEntity>) : MatrixCursor(MediaStoreHelper.SONG_PROJECTION, songs.size) {
+
+    init {
+        for (song in songs) {
+            addRow(
+                arrayOf<Any?>(
+                    song.id, song.title, song.artist, song.artistId, song.album, song.albumId,
+                    song.duration, song.path, song.size, song.dateAdded, song.dateModified,
+                    song.trackNumber, song.year, 1
+                )
+            )
+        }
+    }
+
+    override fun getString(column: Int): String? = super.getString(column)?.let { String(it.toCharArray()) }
+
+    override fun copyStringToBuffer(columnIndex: Int, buffer: CharArrayBuffer) {
+        val value = super.getString(columnIndex)
+        if (value == null) {
+            buffer.sizeCopied = 0
+            return
+        }
+        if (buffer.data == null || buffer.data.size < value.length) buffer.data = CharArray(value.length)
+        value.toCharArray(buffer.data, 0, 0, value.length)
+        buffer.sizeCopied = value.length
+    }
+}
@@ -0,0 +1,168 @@
+package com.alkhufash.music.benchmark
+
+import androidx.benchmark.junit4.BenchmarkRule
+import androidx.benchmark.junit4.measureRepeated
+import androidx.test.filters.LargeTest
+import androidx.test.platform.app.InstrumentationRegistry
+import com.alkhufash.music.data.db.MusicDatabase
+import com.alkhufash.music.data.db.SongEntity
+import com.alkhufash.music.data.db.toSong
+import com.alkhufash.music.data.repository.MusicRepositoryImpl
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
+import kotlin.random.Random
+
+/**
+ * Time and allocations per call of the repository's read paths over a
+ * synthetic library of each size. Each iteration runs in its own
+ * runBlocking, so every result carries the same small coroutine overhead.
+ */
+@LargeTest
+@RunWith(Parameterized::class)
+class RepositoryBenchmark(private val size: Int) {
+
+    companion object {
+        private const val PLAYLIST_SIZE = 2_000
+
+        @JvmStatic
+        @Parameterized.Parameters(name = "songs={0}")
+        fun sizes() = listOf(1_000, 10_000, 100_000)
+    }
+
+    @get:Rule
+    val benchmarkRule = BenchmarkRule()
+
+    private lateinit var database: MusicDatabase
+    private lateinit var repository: MusicRepositoryImpl
+    private lateinit var songs: List<SongEntity>
+    private lateinit var artistFolder: String
+    private var playlistId = 0L
+
+    @Before
+    fun setUp() = runBlocking {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        songs = SyntheticLibrary.songs(size)
+        database = SyntheticLibrary.database(context, songs)
+        repository = SyntheticLibrary.repository(context, database)
+        artistFolder = songs[size / 2].folderPath.substringBeforeLast("/")
+
+        playlistId = repository.createPlaylist("benchmark")
+        val random = Random(7)
+        repeat(minOf(PLAYLIST_SIZE, size)) {
+            repository.addSongToPlaylist(songs[random.nextInt(size)].id, playlistId)
+        }
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+    }
+
+    @Test
+    fun searchSongsCached() {
+        val query = SyntheticLibrary.queries.first()
+        benchmarkRule.measureRepeated {
+            runBlocking { repository.searchSongs(query) }
+        }
+    }
+
+    // The cache is emptied, untimed, before each call so every call misses
+    @Test
+    fun searchSongsUncached() {
+        val queries = SyntheticLibrary.queries
+        var next = 0
+        benchmarkRule.measureRepeated {
+            val query = queries[next]
+            next = (next + 1) % queries.size
+            runWithTimingDisabled { repository.clearSearchCache() }
+            runBlocking { repository.searchSongs(query) }
+        }
+    }
+
+    @Test
+    fun searchAll() {
+        val queries = SyntheticLibrary.queries
+        var next = 0
+        benchmarkRule.measureRepeated {
+            val query = queries[next]
+            next = (next + 1) % queries.size
+            runBlocking { repository.searchAll(query, 20) }
+        }
+    }
+
+    @Test
+    fun searchEntities() {
+        val queries = SyntheticLibrary.queries
+        var next = 0
+        benchmarkRule.measureRepeated {
+            val query = queries[next]
+            next = (next + 1) % queries.size
+            runBlocking { repository.searchEntities(query, 20) }
+        }
+    }
+
+    @Test
+    fun narrowSearch() {
+        // "hear" keys to "hr" and "heart" to "hrt", so this one can narrow
+        val results = runBlocking { repository.searchSongs("hear") }
+        benchmarkRule.measureRepeated {
+            // A cached full result for "heart" would be returned without narrowing
+            runWithTimingDisabled { repository.clearSearchCache() }
+            runBlocking { repository.narrowSearch(results, "hear", "heart") }
+        }
+    }
+
+    @Test
+    fun getSongsByFolder() {
+        benchmarkRule.measureRepeated {
+            runBlocking { repository.getSongsByFolder(artistFolder) }
+        }
+    }
+
+    @Test
+    fun getAllFolders() {
+        benchmarkRule.measureRepeated {
+            runBlocking { repository.getAllFolders().first() }
+        }
+    }
+
+    @Test
+    fun getSubfolders() {
+        benchmarkRule.measureRepeated {
+            runBlocking { repository.getSubfolders(SyntheticLibrary.ROOT).first() }
+        }
+    }
+
+    @Test
+    fun getPlaylistSongs() {
+        benchmarkRule.measureRepeated {
+            runBlocking { repository.getPlaylistSongs(playlistId) }
+        }
+    }
+
+    @Test
+    fun getSongById() {
+        val random = Random(11)
+        benchmarkRule.measureRepeated {
+            val id = songs[random.nextInt(size)].id
+            runBlocking { repository.getSongById(id) }
+        }
+    }
+
+    // The lookup getSongById did before the id index, for comparison
+    @Test
+    fun getSongByIdLinearBaseline() {
+        val catalog = songs.map { it.toSong() }
+        val random = Random(11)
+        benchmarkRule.measureRepeated {
+            val id = songs[random.nextInt(size)].id
+            catalog.find { it.id == id }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.alkhufash.music.benchmark
+
+import android.content.Context
+import androidx.room.Room
+import com.alkhufash.music.data.db.LibraryStateEntity
+import com.alkhufash.music.data.db.MusicDatabase
+import com.alkhufash.music.data.db.SongEntity
+import com.alkhufash.music.data.db.toEntity
+import com.alkhufash.music.data.library.LibraryObserver
+import com.alkhufash.music.data.library.LibraryScanner
+import com.alkhufash.music.data.model.MediaStoreHelper
+import com.alkhufash.music.data.repository.MusicRepositoryImpl
+import com.alkhufash.music.domain.model.Song
+import kotlin.random.Random
+
+/**
+ * Deterministic libraries for the benchmarks: half the albums Arabic, half
+ * Latin, about twelve songs per album and one folder per album under its
+ * artist's folder, the way a ripped collection is usually laid out.
+ */
+object SyntheticLibrary {
+
+    const val ROOT = "/storage/emulated/0/Music"
+
+    private const val SONGS_PER_ALBUM = 12
+    private const val ALBUMS_PER_ARTIST = 4
+
+    private val arabicArtists = listOf(
+        "عمرو دياب", "محمد عبده", "فيروز", "أم كلثوم", "كاظم الساهر", "نانسي عجرم",
+        "عبد الحليم حافظ", "ماجدة الرومي", "راشد الماجد", "إليسا", "تامر حسني", "وائل كفوري"
+    )
+    private val latinArtists = listOf(
+        "Amr Diab", "Mohammed Abdu", "Fairuz", "Adele", "Coldplay", "Daft Punk",
+        "Nancy Ajram", "Kadim Al Sahir", "Queen", "Radiohead", "Norah Jones", "Elissa"
+    )
+    private val arabicWords = listOf(
+        "حبيبي", "يا", "قلبي", "ليل", "عيون", "الهوى", "سلام", "بحر", "نور", "أنا",
+        "وياك", "تملّي", "معاك", "بعدك", "زمان", "الشوق", "حنين", "غالي", "سهران", "رسالة"
+    )
+    private val latinWords = listOf(
+        "love", "night", "heart", "blue", "summer", "dream", "light", "home", "forever", "rain",
+        "fire", "again", "story", "road", "sky", "angel", "lonely", "golden", "river", "moon"
+    )
+
+    /** Queries the suite runs: prefixes, whole words, both scripts, transliterations and typos. */
+    val queries: List<String> = buildList {
+        for (word in arabicWords + latinWords) {
+            add(word)
+            if (word.length > 3) add(word.take(3))
+        }
+        addAll(listOf("habibi", "amr", "fairouz", "دياب", "kazim", "lovr", "forevr", "قلبى", "سهرن"))
+    }
+
+    fun songs(count: Int, seed: Int = 42): List<SongEntity> {
+        val random = Random(seed)
+        val songs = ArrayList<SongEntity>(count)
+        var album = 0
+        while (songs.size < count) {
+            val arabic = album % 2 == 0
+            val artistIndex = album / ALBUMS_PER_ARTIST
+            val artist = name(if (arabic) arabicArtists else latinArtists, artistIndex)
+            val albumName = title(random, if (arabic) arabicWords else latinWords, 1, 3)
+            val folder = "$ROOT/$artist/$albumName"
+            for (track in 1..SONGS_PER_ALBUM) {
+                if (songs.size == count) break
+                val id = songs.size + 1L
+                val title = title(random, if (arabic) arabicWords else latinWords, 2, 4)
+                songs.add(
+                    Song(
+                        id = id,
+                        title = title,
+                        artist = artist,
+                        artistId = artistIndex + 1L,
+                        album = albumName,
+                        albumId = album + 1L,
+                        duration = random.nextLong(120_000, 420_000),
+                        path = "$folder/$track - $title.mp3",
+                        size = random.nextLong(2_000_000, 12_000_000),
+                        dateAdded = 1_600_000_000L + id,
+                        dateModified = 1_600_000_000L + id,
+                        trackNumber = track,
+                        year = 1960 + random.nextInt(64)
+                    ).toEntity()
+                )
+            }
+            album++
+        }
+        return songs
+    }
+
+    /** An in-memory database holding [songs], with its album, artist and folder tables built. */
+    suspend fun database(context: Context, songs: List<SongEntity>): MusicDatabase {
+        val database = Room.inMemoryDatabaseBuilder(context, MusicDatabase::class.java).build()
+        database.musicDao().applyLibraryDelta(
+            upserts = songs,
+            deletedIds = emptyList(),
+            state = LibraryStateEntity(mediaStoreVersion = "benchmark", generation = 0, maxDateModified = 0),
+            replaceAll = true
+        )
+        return database
+    }
+
+    /** A repository over [database] with its catalog loaded; it never scans MediaStore. */
+    suspend fun repository(context: Context, database: MusicDatabase): MusicRepositoryImpl {
+        val dao = database.musicDao()
+        val repository = MusicRepositoryImpl(
+            libraryScanner = LibraryScanner(MediaStoreHelper(context), dao),
+            libraryObserver = LibraryObserver(context),
+            musicDao = dao
+        )
+        repository.loadCatalog()
+        return repository
+    }
+
+    // Bases repeat with a number once the list runs out, as in "Fairuz 3"
+    private fun name(bases: List<String>, index: Int): String {
+        val base = bases[index % bases.size]
+        val round = index / bases.size
+        return if (round == 0) base else "$base $round"
+    }
+
+    private fun title(random: Random, words: List<String>, min: Int, max: Int): String {
+        val count = random.nextInt(min, max + 1)
+        return (1..count).joinToString(" ") { words[random.nextInt(words.size)] }
+    }
+}
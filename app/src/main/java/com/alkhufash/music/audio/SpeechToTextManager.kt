@@ -7,10 +7,27 @@ import android.speech.RecognitionListener
 import android.speech.RecognizerIntent
 import android.speech.SpeechRecognizer
 import android.util.Log
+import com.alkhufash.music.data.db.FtsQuery
+import com.alkhufash.music.data.db.MusicDao
+import com.alkhufash.music.data.db.TranscriptEntity
+import com.alkhufash.music.data.db.TranscriptPreview
+import com.alkhufash.music.data.index.SearchTokenizer
+import com.alkhufash.music.data.index.Snippet
 import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.stateIn
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.util.Locale
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -21,12 +38,18 @@ import javax.inject.Singleton
  */
 @Singleton
 class SpeechToTextManager @Inject constructor(
-    @ApplicationContext private val context: Context
+    @ApplicationContext private val context: Context,
+    private val musicDao: MusicDao
 ) {
     companion object {
         private const val TAG = "SpeechToTextManager"
+        private const val SEARCH_LIMIT = 50
+        private const val PAGE_SIZE = 50
+        private const val STOP_TIMEOUT_MS = 5_000L
     }
 
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
     private var speechRecognizer: SpeechRecognizer? = null
 
     // حالة التسجيل
@@ -44,9 +67,19 @@ class SpeechToTextManager @Inject constructor(
     private val _isListening = MutableStateFlow(false)
     val isListening: StateFlow<Boolean> = _isListening.asStateFlow()
 
-    // قائمة النصوص المحولة المحفوظة
-    private val _transcriptions = MutableStateFlow<List<TranscriptionRecord>>(emptyList())
-    val transcriptions: StateFlow<List<TranscriptionRecord>> = _transcriptions.asStateFlow()
+    private val transcriptLimit = MutableStateFlow(PAGE_SIZE)
+
+    // أحدث السجلات المحفوظة صفحةً صفحة، بمعاينة قصيرة لكل منها؛ النص الكامل يُقرأ عند الطلب
+    // ولا تبقى في الذاكرة إلا ما دامت الشاشة تراقبها
+    @OptIn(ExperimentalCoroutinesApi::class)
+    val transcriptions: StateFlow<List<TranscriptionRecord>> = transcriptLimit
+        .flatMapLatest { limit -> musicDao.observeTranscriptPreviews(limit) }
+        .map { rows -> rows.map { it.toRecord() } }
+        .stateIn(scope, SharingStarted.WhileSubscribed(STOP_TIMEOUT_MS), emptyList())
+
+    // عدد السجلات كلها، لمعرفة إن بقي ما لم يُعرض
+    val transcriptionCount: StateFlow<Int> = musicDao.observeTranscriptCount()
+        .stateIn(scope, SharingStarted.WhileSubscribed(STOP_TIMEOUT_MS), 0)
 
     /**
      * التحقق من توفر خدمة التعرف على الكلام
@@ -133,31 +166,57 @@ class SpeechToTextManager @Inject constructor(
      * حفظ نص محول كسجل
      */
     fun saveTranscription(text: String, language: String = "ar-SA", songTitle: String? = null) {
-        val record = TranscriptionRecord(
-            id = System.currentTimeMillis(),
+        val now = System.currentTimeMillis()
+        val transcript = TranscriptEntity(
+            id = now,
             text = text,
             language = language,
-            timestamp = System.currentTimeMillis(),
+            timestamp = now,
             songTitle = songTitle
         )
-        val current = _transcriptions.value.toMutableList()
-        current.add(0, record) // إضافة في البداية (الأحدث أولاً)
-        _transcriptions.value = current
+        scope.launch { musicDao.saveTranscript(transcript) }
         Log.d(TAG, "تم حفظ التسجيل: ${text.take(50)}...")
     }
 
+    /**
+     * عرض الصفحة التالية من السجلات
+     */
+    fun loadMoreTranscriptions() {
+        transcriptLimit.update { it + PAGE_SIZE }
+    }
+
+    /**
+     * النص الكامل لسجل، أو null إن حُذف
+     */
+    suspend fun getTranscriptionText(id: Long): String? = withContext(Dispatchers.IO) {
+        musicDao.getTranscriptText(id)
+    }
+
     /**
      * حذف سجل تحويل
      */
     fun deleteTranscription(id: Long) {
-        _transcriptions.value = _transcriptions.value.filter { it.id != id }
+        scope.launch { musicDao.deleteTranscript(id) }
     }
 
     /**
      * مسح جميع السجلات
      */
     fun clearAllTranscriptions() {
-        _transcriptions.value = emptyList()
+        scope.launch { musicDao.clearTranscripts() }
+    }
+
+    /**
+     * البحث في السجلات المحفوظة بنفس قواعد تطبيع العربية المستخدمة في بحث الأغاني
+     * يُقرأ نص السجلات المطابقة فقط، مع مقتطف حول أول تطابق
+     */
+    suspend fun searchTranscriptions(query: String): List<TranscriptionMatch> = withContext(Dispatchers.IO) {
+        val match = FtsQuery.prefix(query) ?: return@withContext emptyList()
+        val terms = SearchTokenizer.tokenize(query)
+        musicDao.searchTranscripts(match, SEARCH_LIMIT).map { row ->
+            val snippet = Snippet.of(row.text, terms)
+            TranscriptionMatch(row.toRecord(), snippet.text, snippet.highlights)
+        }
     }
 
     /**
@@ -234,11 +293,13 @@ class SpeechToTextManager @Inject constructor(
 }
 
 /**
- * نموذج بيانات سجل التحويل
+ * نموذج بيانات سجل التحويل كما يُعرض في القائمة: معاينة من أول النص،
+ * و truncated تعني أن للنص بقية تُقرأ بـ getTranscriptionText
  */
 data class TranscriptionRecord(
     val id: Long,
-    val text: String,
+    val preview: String,
+    val truncated: Boolean,
     val language: String,
     val timestamp: Long,
     val songTitle: String? = null
@@ -255,3 +316,30 @@ data class TranscriptionRecord(
         else -> language
     }
 }
+
+/**
+ * سجل مطابق لبحث، مع مقتطف من نصه ومواضع التطابق داخل المقتطف
+ */
+data class TranscriptionMatch(
+    val record: TranscriptionRecord,
+    val snippet: String,
+    val highlights: List<IntRange>
+)
+
+private fun TranscriptPreview.toRecord() = TranscriptionRecord(
+    id = id,
+    preview = preview,
+    truncated = truncated,
+    language = language,
+    timestamp = timestamp,
+    songTitle = songTitle
+)
+
+private fun TranscriptEntity.toRecord() = TranscriptionRecord(
+    id = id,
+    preview = text.take(MusicDao.TRANSCRIPT_PREVIEW),
+    truncated = text.length > MusicDao.TRANSCRIPT_PREVIEW,
+    language = language,
+    timestamp = timestamp,
+    songTitle = songTitle
+)
@@ -1,7 +1,10 @@
 package com.alkhufash.music.data.db
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
 import androidx.room.ForeignKey
+import androidx.room.Fts4
+import androidx.room.FtsOptions
 import androidx.room.Index
 import androidx.room.PrimaryKey
 
@@ -18,20 +21,206 @@ data class PlaylistEntity(
     val createdAt: Long = System.currentTimeMillis()
 )
 
+/**
+ * [position] only orders a playlist's rows. Appends are spaced
+ * [MusicDao.POSITION_STEP] apart so a move can take the midpoint of its new
+ * neighbours and write one row.
+ */
 @Entity(
     tableName = "playlist_songs",
     primaryKeys = ["playlistId", "songId"],
-    indices = [Index("playlistId"), Index("songId")]
+    indices = [Index("playlistId", "position"), Index("songId")]
 )
 data class PlaylistSongEntity(
     val playlistId: Long,
     val songId: Long,
     val addedAt: Long = System.currentTimeMillis(),
-    val position: Int = 0
+    val position: Long = 0
 )
 
-@Entity(tableName = "recent_songs")
-data class RecentSongEntity(
+/**
+ * One stretch of a song being played, appended when it ends and never
+ * updated. [listenedMs] excludes pauses; [skipped] means it was left early.
+ * Rolled up into [SongStatsEntity] and [DailyStatsEntity] by PlayStatsWorker.
+ */
+@Entity(tableName = "play_events")
+data class PlayEventEntity(
+    @PrimaryKey(autoGenerate = true) val id: Long = 0,
+    val songId: Long,
+    val startedAt: Long,
+    val endedAt: Long,
+    val listenedMs: Long,
+    val skipped: Boolean
+)
+
+/** Per-song totals over the rolled-up play events. */
+@Entity(tableName = "song_stats", indices = [Index("playCount"), Index("lastPlayedAt")])
+data class SongStatsEntity(
     @PrimaryKey val songId: Long,
-    val playedAt: Long = System.currentTimeMillis()
+    val playCount: Int = 0,
+    val skipCount: Int = 0,
+    val listenedMs: Long = 0,
+    val lastPlayedAt: Long = 0
+)
+
+/** Listening totals for one local calendar day, [day] as yyyy-MM-dd. */
+@Entity(tableName = "daily_stats")
+data class DailyStatsEntity(
+    @PrimaryKey val day: String,
+    val playCount: Int = 0,
+    val listenedMs: Long = 0
+)
+
+/** A song's play events since the last rollup, summed. */
+data class SongPlayTotals(
+    val songId: Long,
+    val plays: Int,
+    val skips: Int,
+    val listenedMs: Long,
+    val lastPlayedAt: Long
+)
+
+/** A day's play events since the last rollup, summed. */
+data class DayPlayTotals(
+    val day: String,
+    val plays: Int,
+    val listenedMs: Long
+)
+
+/** Single-row watermark: the last play event folded into the stats tables. */
+@Entity(tableName = "play_rollup_state")
+data class PlayRollupStateEntity(
+    @PrimaryKey val id: Int = 0,
+    val lastEventId: Long
+)
+
+@Entity(
+    tableName = "songs",
+    indices = [Index("title"), Index("albumId"), Index("artistId"), Index("folderPath")]
+)
+data class SongEntity(
+    @PrimaryKey val id: Long,
+    val title: String,
+    val artist: String,
+    val artistId: Long,
+    val album: String,
+    val albumId: Long,
+    val duration: Long,
+    val path: String,
+    val folderPath: String,
+    val size: Long,
+    val dateAdded: Long,
+    val dateModified: Long,
+    val trackNumber: Int,
+    val year: Int
+)
+
+// Search text for songs, normalized by SearchNormalizer; rowid is the song id.
+// Written alongside the songs table in MusicDao.applyLibraryDelta.
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "songs_fts")
+data class SongFtsEntity(
+    @PrimaryKey @ColumnInfo(name = "rowid") val rowId: Long,
+    val title: String,
+    val artist: String,
+    val album: String,
+    val folderPath: String
+)
+
+@Entity(tableName = "albums", indices = [Index("name")])
+data class AlbumEntity(
+    @PrimaryKey val id: Long,
+    val name: String,
+    val artist: String,
+    val songCount: Int,
+    val year: Int
+)
+
+@Entity(tableName = "artists", indices = [Index("name")])
+data class ArtistEntity(
+    @PrimaryKey val id: Long,
+    val name: String,
+    val albumCount: Int,
+    val songCount: Int
+)
+
+/**
+ * One node of the folder tree. Roots have a null [parentPath]; [songCount] and
+ * [totalDuration] cover the whole subtree, [directSongCount] only this folder.
+ */
+@Entity(tableName = "folders", indices = [Index("parentPath"), Index("name")])
+data class FolderEntity(
+    @PrimaryKey val path: String,
+    val parentPath: String?,
+    val name: String,
+    val songCount: Int,
+    val directSongCount: Int,
+    val totalDuration: Long,
+    val subfolderCount: Int
+)
+
+/** Per-folder aggregate over the songs table, the input to the folder tree. */
+data class FolderStats(
+    val path: String,
+    val songCount: Int,
+    val totalDuration: Long
+)
+
+/**
+ * A playlist with aggregates over the songs it holds that are still in the
+ * library. [coverAlbumIds] is the comma-separated ids of the first
+ * [MusicDao.PLAYLIST_COVERS] distinct albums in playlist order, or null when
+ * the playlist is empty.
+ */
+data class PlaylistSummary(
+    val id: Long,
+    val name: String,
+    val createdAt: Long,
+    val songCount: Int,
+    val totalDuration: Long,
+    val coverAlbumIds: String?
+)
+
+/**
+ * Single-row watermark of the last MediaStore scan. Stored next to the songs
+ * table so a delta and the watermark it was computed against commit together.
+ */
+@Entity(tableName = "library_state")
+data class LibraryStateEntity(
+    @PrimaryKey val id: Int = 0,
+    val mediaStoreVersion: String,
+    val generation: Long,
+    val maxDateModified: Long,
+    val scannedAt: Long = System.currentTimeMillis()
+)
+
+@Entity(tableName = "transcripts")
+data class TranscriptEntity(
+    @PrimaryKey val id: Long,
+    val text: String,
+    val language: String,
+    val timestamp: Long,
+    val songTitle: String?
+)
+
+/**
+ * A transcript as the records list shows it: [preview] is at most
+ * [MusicDao.TRANSCRIPT_PREVIEW] characters of the text, and [truncated] says
+ * whether there is more.
+ */
+data class TranscriptPreview(
+    val id: Long,
+    val preview: String,
+    val truncated: Boolean,
+    val language: String,
+    val timestamp: Long,
+    val songTitle: String?
+)
+
+// Transcript text normalized by SearchNormalizer; rowid is the transcript id
+@Fts4(tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "transcripts_fts")
+data class TranscriptFtsEntity(
+    @PrimaryKey @ColumnInfo(name = "rowid") val rowId: Long,
+    val text: String
 )
@@ -0,0 +1,19 @@
+package com.alkhufash.music.data.db
+
+import com.alkhufash.music.data.index.SearchTokenizer
+
+/** Builds MATCH expressions for the songs_fts table from user input. */
+object FtsQuery {
+
+    /**
+     * Every term of [query] as a prefix, all required, e.g. "Ahmed Fay" becomes
+     * `ahmed* fay*`. Terms are letters and digits only, so nothing needs escaping
+     * and the lowercase terms can't be read as AND/OR/NOT operators. Returns null
+     * when the query has no terms.
+     */
+    fun prefix(query: String): String? {
+        val terms = SearchTokenizer.tokenize(query)
+        if (terms.isEmpty()) return null
+        return terms.joinToString(" ") { "$it*" }
+    }
+}
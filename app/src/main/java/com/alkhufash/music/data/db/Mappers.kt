@@ -0,0 +1,92 @@
+package com.alkhufash.music.data.db
+
+import com.alkhufash.music.data.index.ArtistKey
+import com.alkhufash.music.data.index.SearchNormalizer
+import com.alkhufash.music.data.index.StringPool
+import com.alkhufash.music.domain.model.Album
+import com.alkhufash.music.domain.model.Artist
+import com.alkhufash.music.domain.model.Folder
+import com.alkhufash.music.domain.model.Playlist
+import com.alkhufash.music.domain.model.Song
+
+/** @param pool shares artist and album strings across the rows of one load */
+fun SongEntity.toSong(pool: StringPool? = null): Song = Song(
+    id = id,
+    title = title,
+    artist = pool?.intern(artist) ?: artist,
+    artistId = artistId,
+    album = pool?.intern(album) ?: album,
+    albumId = albumId,
+    duration = duration,
+    path = path,
+    size = size,
+    dateAdded = dateAdded,
+    dateModified = dateModified,
+    trackNumber = trackNumber,
+    year = year
+)
+
+fun Song.toEntity(): SongEntity = SongEntity(
+    id = id,
+    title = title,
+    artist = artist,
+    artistId = ArtistKey.of(artistId, artist),
+    album = album,
+    albumId = albumId,
+    duration = duration,
+    path = path,
+    folderPath = path.substringBeforeLast("/"),
+    size = size,
+    dateAdded = dateAdded,
+    dateModified = dateModified,
+    trackNumber = trackNumber,
+    year = year
+)
+
+fun SongEntity.toSearchText(): SongFtsEntity = SongFtsEntity(
+    rowId = id,
+    title = SearchNormalizer.normalize(title),
+    artist = SearchNormalizer.normalize(artist),
+    album = SearchNormalizer.normalize(album),
+    folderPath = SearchNormalizer.normalize(folderPath)
+)
+
+fun AlbumEntity.toAlbum(): Album = Album(
+    id = id,
+    name = name,
+    artist = artist,
+    songCount = songCount,
+    year = year
+)
+
+fun ArtistEntity.toArtist(): Artist = Artist(
+    id = id,
+    name = name,
+    albumCount = albumCount,
+    songCount = songCount
+)
+
+/** @param covers how many album ids to keep for the playlist's cover */
+fun PlaylistSummary.toPlaylist(covers: Int = MusicDao.PLAYLIST_COVERS): Playlist = Playlist(
+    id = id,
+    name = name,
+    songCount = songCount,
+    createdAt = createdAt,
+    totalDuration = totalDuration,
+    coverAlbumIds = coverAlbumIds
+        ?.splitToSequence(',')
+        ?.take(covers)
+        ?.map { it.toLong() }
+        ?.toList()
+        .orEmpty()
+)
+
+fun FolderEntity.toFolder(): Folder = Folder(
+    path = path,
+    name = name,
+    songCount = songCount,
+    parentPath = parentPath,
+    directSongCount = directSongCount,
+    totalDuration = totalDuration,
+    subfolderCount = subfolderCount
+)
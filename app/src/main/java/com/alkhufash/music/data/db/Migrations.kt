@@ -0,0 +1,206 @@
+package com.alkhufash.music.data.db
+
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+
+/**
+ * One migration per schema version, each shipped with the change that bumped
+ * it. Favorites, playlists and their songs are always kept. Tables derived
+ * from MediaStore are recreated empty when their shape changes, with
+ * library_state cleared so the next refresh does a full scan.
+ */
+object Migrations {
+
+    const val LATEST = 9
+
+    // Songs persisted from MediaStore and the watermark of the last scan
+    private val MIGRATION_1_2 = object : Migration(1, 2) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `songs` (`id` INTEGER NOT NULL, `title` TEXT NOT NULL, " +
+                    "`artist` TEXT NOT NULL, `album` TEXT NOT NULL, `albumId` INTEGER NOT NULL, " +
+                    "`duration` INTEGER NOT NULL, `path` TEXT NOT NULL, `size` INTEGER NOT NULL, " +
+                    "`dateAdded` INTEGER NOT NULL, `dateModified` INTEGER NOT NULL, " +
+                    "`trackNumber` INTEGER NOT NULL, `year` INTEGER NOT NULL, PRIMARY KEY(`id`))"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_songs_title` ON `songs` (`title`)")
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `library_state` (`id` INTEGER NOT NULL, " +
+                    "`mediaStoreVersion` TEXT NOT NULL, `generation` INTEGER NOT NULL, " +
+                    "`maxDateModified` INTEGER NOT NULL, `scannedAt` INTEGER NOT NULL, PRIMARY KEY(`id`))"
+            )
+        }
+    }
+
+    // Songs gain artistId and folderPath; albums, artists and folders become
+    // tables. All are rebuilt by a full scan
+    private val MIGRATION_2_3 = object : Migration(2, 3) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("DROP TABLE IF EXISTS `songs`")
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `songs` (`id` INTEGER NOT NULL, `title` TEXT NOT NULL, " +
+                    "`artist` TEXT NOT NULL, `artistId` INTEGER NOT NULL, `album` TEXT NOT NULL, " +
+                    "`albumId` INTEGER NOT NULL, `duration` INTEGER NOT NULL, `path` TEXT NOT NULL, " +
+                    "`folderPath` TEXT NOT NULL, `size` INTEGER NOT NULL, `dateAdded` INTEGER NOT NULL, " +
+                    "`dateModified` INTEGER NOT NULL, `trackNumber` INTEGER NOT NULL, `year` INTEGER NOT NULL, " +
+                    "PRIMARY KEY(`id`))"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_songs_title` ON `songs` (`title`)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_songs_albumId` ON `songs` (`albumId`)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_songs_artistId` ON `songs` (`artistId`)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_songs_folderPath` ON `songs` (`folderPath`)")
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `albums` (`id` INTEGER NOT NULL, `name` TEXT NOT NULL, " +
+                    "`artist` TEXT NOT NULL, `songCount` INTEGER NOT NULL, `year` INTEGER NOT NULL, PRIMARY KEY(`id`))"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_albums_name` ON `albums` (`name`)")
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `artists` (`id` INTEGER NOT NULL, `name` TEXT NOT NULL, " +
+                    "`albumCount` INTEGER NOT NULL, `songCount` INTEGER NOT NULL, PRIMARY KEY(`id`))"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_artists_name` ON `artists` (`name`)")
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `folders` (`path` TEXT NOT NULL, `name` TEXT NOT NULL, " +
+                    "`songCount` INTEGER NOT NULL, PRIMARY KEY(`path`))"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_folders_name` ON `folders` (`name`)")
+            forceFullScan(db)
+        }
+    }
+
+    // Folders become a tree with subtree totals, rebuilt by a full scan
+    private val MIGRATION_3_4 = object : Migration(3, 4) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("DROP TABLE IF EXISTS `folders`")
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `folders` (`path` TEXT NOT NULL, `parentPath` TEXT, " +
+                    "`name` TEXT NOT NULL, `songCount` INTEGER NOT NULL, `directSongCount` INTEGER NOT NULL, " +
+                    "`totalDuration` INTEGER NOT NULL, `subfolderCount` INTEGER NOT NULL, PRIMARY KEY(`path`))"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_folders_parentPath` ON `folders` (`parentPath`)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_folders_name` ON `folders` (`name`)")
+            forceFullScan(db)
+        }
+    }
+
+    // External-content FTS over songs, indexed from the rows already there.
+    // Room creates its content sync triggers once migration is done
+    private val MIGRATION_4_5 = object : Migration(4, 5) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL(
+                "CREATE VIRTUAL TABLE IF NOT EXISTS `songs_fts` USING FTS4(`title` TEXT NOT NULL, " +
+                    "`artist` TEXT NOT NULL, `album` TEXT NOT NULL, `folderPath` TEXT NOT NULL, " +
+                    "tokenize=unicode61, content=`songs`)"
+            )
+            db.execSQL("INSERT INTO `songs_fts`(`songs_fts`) VALUES ('rebuild')")
+        }
+    }
+
+    // songs_fts becomes a standalone table of SearchNormalizer text keyed by
+    // song id. The text is normalized in Kotlin, so a full scan refills it
+    private val MIGRATION_5_6 = object : Migration(5, 6) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            for (trigger in listOf("BEFORE_UPDATE", "BEFORE_DELETE", "AFTER_UPDATE", "AFTER_INSERT")) {
+                db.execSQL("DROP TRIGGER IF EXISTS `room_fts_content_sync_songs_fts_$trigger`")
+            }
+            db.execSQL("DROP TABLE IF EXISTS `songs_fts`")
+            db.execSQL(
+                "CREATE VIRTUAL TABLE IF NOT EXISTS `songs_fts` USING FTS4(`title` TEXT NOT NULL, " +
+                    "`artist` TEXT NOT NULL, `album` TEXT NOT NULL, `folderPath` TEXT NOT NULL, tokenize=unicode61)"
+            )
+            forceFullScan(db)
+        }
+    }
+
+    // Transcripts move from memory into Room, with normalized FTS text
+    private val MIGRATION_6_7 = object : Migration(6, 7) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `transcripts` (`id` INTEGER NOT NULL, `text` TEXT NOT NULL, " +
+                    "`language` TEXT NOT NULL, `timestamp` INTEGER NOT NULL, `songTitle` TEXT, PRIMARY KEY(`id`))"
+            )
+            db.execSQL(
+                "CREATE VIRTUAL TABLE IF NOT EXISTS `transcripts_fts` USING FTS4(`text` TEXT NOT NULL, " +
+                    "tokenize=unicode61)"
+            )
+        }
+    }
+
+    // Playlist positions are spaced MusicDao.POSITION_STEP apart and indexed
+    // with their playlist, so a move writes one row
+    private val MIGRATION_7_8 = object : Migration(7, 8) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            spacePlaylistPositions(db)
+            db.execSQL("DROP INDEX IF EXISTS `index_playlist_songs_playlistId`")
+            db.execSQL(
+                "CREATE INDEX IF NOT EXISTS `index_playlist_songs_playlistId_position` " +
+                    "ON `playlist_songs` (`playlistId`, `position`)"
+            )
+        }
+    }
+
+    // Play events and their rollups replace recent_songs, whose rows carry
+    // over as one play each
+    private val MIGRATION_8_9 = object : Migration(8, 9) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `play_events` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "`songId` INTEGER NOT NULL, `startedAt` INTEGER NOT NULL, `endedAt` INTEGER NOT NULL, " +
+                    "`listenedMs` INTEGER NOT NULL, `skipped` INTEGER NOT NULL)"
+            )
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `song_stats` (`songId` INTEGER NOT NULL, `playCount` INTEGER NOT NULL, " +
+                    "`skipCount` INTEGER NOT NULL, `listenedMs` INTEGER NOT NULL, `lastPlayedAt` INTEGER NOT NULL, " +
+                    "PRIMARY KEY(`songId`))"
+            )
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_song_stats_playCount` ON `song_stats` (`playCount`)")
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_song_stats_lastPlayedAt` ON `song_stats` (`lastPlayedAt`)")
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `daily_stats` (`day` TEXT NOT NULL, `playCount` INTEGER NOT NULL, " +
+                    "`listenedMs` INTEGER NOT NULL, PRIMARY KEY(`day`))"
+            )
+            db.execSQL(
+                "CREATE TABLE IF NOT EXISTS `play_rollup_state` (`id` INTEGER NOT NULL, " +
+                    "`lastEventId` INTEGER NOT NULL, PRIMARY KEY(`id`))"
+            )
+            db.execSQL(
+                "INSERT OR IGNORE INTO song_stats (songId, playCount, skipCount, listenedMs, lastPlayedAt) " +
+                    "SELECT songId, 1, 0, 0, playedAt FROM recent_songs"
+            )
+            db.execSQL("DROP TABLE IF EXISTS `recent_songs`")
+        }
+    }
+
+    val ALL: Array<Migration> = arrayOf(
+        MIGRATION_1_2,
+        MIGRATION_2_3,
+        MIGRATION_3_4,
+        MIGRATION_4_5,
+        MIGRATION_5_6,
+        MIGRATION_6_7,
+        MIGRATION_7_8,
+        MIGRATION_8_9
+    )
+
+    private fun forceFullScan(db: SupportSQLiteDatabase) {
+        db.execSQL("DELETE FROM `library_state`")
+    }
+
+    // Old rows hold dense positions that removals may have left tied; rank
+    // them in their current order and space the ranks POSITION_STEP apart
+    private fun spacePlaylistPositions(db: SupportSQLiteDatabase) {
+        db.execSQL(
+            "CREATE TEMP TABLE playlist_ranks AS SELECT ps.playlistId, ps.songId, " +
+                "(SELECT COUNT(*) FROM playlist_songs o WHERE o.playlistId = ps.playlistId AND " +
+                "(o.position < ps.position OR (o.position = ps.position AND " +
+                "(o.addedAt < ps.addedAt OR (o.addedAt = ps.addedAt AND o.songId < ps.songId))))) AS rank " +
+                "FROM playlist_songs ps"
+        )
+        db.execSQL(
+            "UPDATE playlist_songs SET position = (SELECT r.rank FROM playlist_ranks r " +
+                "WHERE r.playlistId = playlist_songs.playlistId AND r.songId = playlist_songs.songId) " +
+                "* ${MusicDao.POSITION_STEP}"
+        )
+        db.execSQL("DROP TABLE playlist_ranks")
+    }
+}
@@ -1,11 +1,24 @@
 package com.alkhufash.music.data.db
 
 import androidx.room.*
+import com.alkhufash.music.data.index.FolderTree
+import com.alkhufash.music.data.index.SearchNormalizer
 import kotlinx.coroutines.flow.Flow
 
 @Dao
 interface MusicDao {
 
+    companion object {
+        /** Gap between appended playlist positions: 16 moves into one gap before a renumber. */
+        const val POSITION_STEP = 1L shl 16
+
+        /** Album covers kept per playlist summary. */
+        const val PLAYLIST_COVERS = 4
+
+        /** Characters of transcript text read for the records list. */
+        const val TRANSCRIPT_PREVIEW = 280
+    }
+
     // Favorites
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     suspend fun addFavorite(favorite: FavoriteEntity)
@@ -16,8 +29,8 @@ interface MusicDao {
     @Query("SELECT * FROM favorites ORDER BY addedAt DESC")
     fun getAllFavorites(): Flow<List<FavoriteEntity>>
 
-    @Query("SELECT EXISTS(SELECT 1 FROM favorites WHERE songId = :songId)")
-    suspend fun isFavorite(songId: Long): Boolean
+    @Query("SELECT songId FROM favorites")
+    suspend fun getFavoriteIds(): List<Long>
 
     // Playlists
     @Insert(onConflict = OnConflictStrategy.REPLACE)
@@ -26,32 +39,442 @@ interface MusicDao {
     @Delete
     suspend fun deletePlaylist(playlist: PlaylistEntity)
 
-    @Query("SELECT * FROM playlists ORDER BY createdAt DESC")
-    fun getAllPlaylists(): Flow<List<PlaylistEntity>>
+    // One row per playlist; Room re-runs it when playlists, playlist_songs or songs change.
+    // Covers are the first albums in playlist order, each placed at its earliest
+    // song; SQLite concatenates them in the order the inner query returns them.
+    @Query(
+        "SELECT p.id, p.name, p.createdAt, COUNT(s.id) AS songCount, " +
+            "COALESCE(SUM(s.duration), 0) AS totalDuration, " +
+            "(SELECT GROUP_CONCAT(albumId) FROM (" +
+            "SELECT cs.albumId FROM playlist_songs cps JOIN songs cs ON cs.id = cps.songId " +
+            "WHERE cps.playlistId = p.id GROUP BY cs.albumId " +
+            "ORDER BY MIN(cps.position) LIMIT $PLAYLIST_COVERS)) AS coverAlbumIds " +
+            "FROM playlists p " +
+            "LEFT JOIN playlist_songs ps ON ps.playlistId = p.id " +
+            "LEFT JOIN songs s ON s.id = ps.songId " +
+            "GROUP BY p.id ORDER BY p.createdAt DESC"
+    )
+    fun observePlaylistSummaries(): Flow<List<PlaylistSummary>>
 
     @Query("SELECT * FROM playlists WHERE id = :id")
     suspend fun getPlaylistById(id: Long): PlaylistEntity?
 
     // Playlist Songs
     @Insert(onConflict = OnConflictStrategy.IGNORE)
-    suspend fun addSongToPlaylist(playlistSong: PlaylistSongEntity)
+    suspend fun insertPlaylistSongs(rows: List<PlaylistSongEntity>)
 
-    @Query("DELETE FROM playlist_songs WHERE playlistId = :playlistId AND songId = :songId")
-    suspend fun removeSongFromPlaylist(playlistId: Long, songId: Long)
+    @Query("DELETE FROM playlist_songs WHERE playlistId = :playlistId AND songId IN (:songIds)")
+    suspend fun deletePlaylistSongs(playlistId: Long, songIds: List<Long>)
 
     @Query("SELECT songId FROM playlist_songs WHERE playlistId = :playlistId ORDER BY position ASC")
     suspend fun getPlaylistSongIds(playlistId: Long): List<Long>
 
-    @Query("SELECT COUNT(*) FROM playlist_songs WHERE playlistId = :playlistId")
-    suspend fun getPlaylistSongCount(playlistId: Long): Int
+    @Query("SELECT * FROM playlist_songs WHERE playlistId = :playlistId ORDER BY position ASC")
+    suspend fun getPlaylistEntries(playlistId: Long): List<PlaylistSongEntity>
+
+    @Query("SELECT * FROM playlist_songs WHERE playlistId = :playlistId ORDER BY position ASC LIMIT 1 OFFSET :index")
+    suspend fun getPlaylistEntryAt(playlistId: Long, index: Int): PlaylistSongEntity?
+
+    @Query("SELECT MAX(position) FROM playlist_songs WHERE playlistId = :playlistId")
+    suspend fun getLastPlaylistPosition(playlistId: Long): Long?
+
+    @Query("UPDATE playlist_songs SET position = :position WHERE playlistId = :playlistId AND songId = :songId")
+    suspend fun setPlaylistSongPosition(playlistId: Long, songId: Long, position: Long)
 
     @Query("DELETE FROM playlist_songs WHERE playlistId = :playlistId")
     suspend fun clearPlaylist(playlistId: Long)
 
-    // Recent Songs
+    /**
+     * Appends the songs of [songIds] not already in the playlist, in order, and
+     * returns how many were added. Positions are taken inside the transaction,
+     * so concurrent adds can't collide.
+     */
+    @Transaction
+    suspend fun addSongsToPlaylist(playlistId: Long, songIds: List<Long>): Int {
+        val present = getPlaylistSongIds(playlistId).toHashSet()
+        var position = getLastPlaylistPosition(playlistId) ?: -POSITION_STEP
+        val addedAt = System.currentTimeMillis()
+        val rows = ArrayList<PlaylistSongEntity>()
+        for (songId in songIds) {
+            if (!present.add(songId)) continue
+            position += POSITION_STEP
+            rows.add(PlaylistSongEntity(playlistId, songId, addedAt, position))
+        }
+        insertPlaylistSongs(rows)
+        return rows.size
+    }
+
+    @Transaction
+    suspend fun removeSongsFromPlaylist(playlistId: Long, songIds: List<Long>) {
+        // SQLite caps bound variables at 999 per statement
+        songIds.chunked(500).forEach { deletePlaylistSongs(playlistId, it) }
+    }
+
+    /**
+     * Moves the songs of [songIds] together, in their current playlist order,
+     * to [toIndex] among the songs that stay put. The playlist is renumbered;
+     * only rows whose position changes are written.
+     */
+    @Transaction
+    suspend fun moveSongsInPlaylist(playlistId: Long, songIds: List<Long>, toIndex: Int) {
+        val entries = getPlaylistEntries(playlistId)
+        val moving = songIds.toHashSet()
+        val (moved, rest) = entries.partition { it.songId in moving }
+        if (moved.isEmpty()) return
+        val at = toIndex.coerceIn(0, rest.size)
+        renumberPlaylist(playlistId, rest.subList(0, at) + moved + rest.subList(at, rest.size))
+    }
+
+    /**
+     * Moves the song at index [from] to index [to]. It takes the midpoint of
+     * its new neighbours' positions, so only its own row is written unless the
+     * gap between them has run out, which renumbers the playlist.
+     */
+    @Transaction
+    suspend fun movePlaylistSong(playlistId: Long, from: Int, to: Int) {
+        if (from == to) return
+        val entry = getPlaylistEntryAt(playlistId, from) ?: return
+        // Neighbours at the destination, in indices from before the move
+        val before = when {
+            to > from -> getPlaylistEntryAt(playlistId, to)
+            to > 0 -> getPlaylistEntryAt(playlistId, to - 1)
+            else -> null
+        }
+        val after = getPlaylistEntryAt(playlistId, if (to > from) to + 1 else to)
+        val position = when {
+            before == null && after == null -> return
+            before == null -> after!!.position - POSITION_STEP
+            after == null -> before.position + POSITION_STEP
+            after.position - before.position > 1 -> before.position + (after.position - before.position) / 2
+            else -> {
+                val entries = getPlaylistEntries(playlistId).toMutableList()
+                entries.add(to, entries.removeAt(from))
+                renumberPlaylist(playlistId, entries)
+                return
+            }
+        }
+        setPlaylistSongPosition(playlistId, entry.songId, position)
+    }
+
+    /** Spaces positions [POSITION_STEP] apart in the order given. */
+    @Transaction
+    suspend fun renumberPlaylist(playlistId: Long, order: List<PlaylistSongEntity>) {
+        order.forEachIndexed { index, entry ->
+            val position = index * POSITION_STEP
+            if (entry.position != position) setPlaylistSongPosition(playlistId, entry.songId, position)
+        }
+    }
+
+    // Play history
+    @Insert
+    suspend fun insertPlayEvent(event: PlayEventEntity)
+
+    @Query("SELECT COALESCE(MAX(id), 0) FROM play_events")
+    suspend fun getLastPlayEventId(): Long
+
+    @Query("SELECT lastEventId FROM play_rollup_state WHERE id = 0")
+    suspend fun getRolledUpEventId(): Long?
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun setPlayRollupState(state: PlayRollupStateEntity)
+
+    // lastPlayedAt counts only plays, not skips
+    @Query(
+        "SELECT songId, SUM(NOT skipped) AS plays, SUM(skipped) AS skips, SUM(listenedMs) AS listenedMs, " +
+            "MAX(CASE WHEN skipped THEN 0 ELSE endedAt END) AS lastPlayedAt " +
+            "FROM play_events WHERE id > :afterId AND id <= :upToId GROUP BY songId"
+    )
+    suspend fun sumPlaysBySong(afterId: Long, upToId: Long): List<SongPlayTotals>
+
+    @Query(
+        "SELECT date(startedAt / 1000, 'unixepoch', 'localtime') AS day, " +
+            "SUM(NOT skipped) AS plays, SUM(listenedMs) AS listenedMs " +
+            "FROM play_events WHERE id > :afterId AND id <= :upToId GROUP BY day"
+    )
+    suspend fun sumPlaysByDay(afterId: Long, upToId: Long): List<DayPlayTotals>
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertSongStats(rows: List<SongStatsEntity>)
+
+    @Query(
+        "UPDATE song_stats SET playCount = playCount + :plays, skipCount = skipCount + :skips, " +
+            "listenedMs = listenedMs + :listenedMs, lastPlayedAt = MAX(lastPlayedAt, :lastPlayedAt) " +
+            "WHERE songId = :songId"
+    )
+    suspend fun addSongStats(songId: Long, plays: Int, skips: Int, listenedMs: Long, lastPlayedAt: Long)
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertDailyStats(rows: List<DailyStatsEntity>)
+
+    @Query("UPDATE daily_stats SET playCount = playCount + :plays, listenedMs = listenedMs + :listenedMs WHERE day = :day")
+    suspend fun addDailyStats(day: String, plays: Int, listenedMs: Long)
+
+    /**
+     * Folds the play events logged since the last rollup into the per-song
+     * and per-day totals. Returns false when there was nothing new.
+     */
+    @Transaction
+    suspend fun rollUpPlayEvents(): Boolean {
+        val after = getRolledUpEventId() ?: 0
+        val upTo = getLastPlayEventId()
+        if (upTo <= after) return false
+
+        val bySong = sumPlaysBySong(after, upTo)
+        insertSongStats(bySong.map { SongStatsEntity(it.songId) })
+        bySong.forEach { addSongStats(it.songId, it.plays, it.skips, it.listenedMs, it.lastPlayedAt) }
+
+        val byDay = sumPlaysByDay(after, upTo)
+        insertDailyStats(byDay.map { DailyStatsEntity(it.day) })
+        byDay.forEach { addDailyStats(it.day, it.plays, it.listenedMs) }
+
+        setPlayRollupState(PlayRollupStateEntity(lastEventId = upTo))
+        return true
+    }
+
+    @Query("SELECT songId FROM song_stats WHERE playCount > 0 ORDER BY playCount DESC LIMIT :limit")
+    suspend fun getMostPlayedIds(limit: Int): List<Long>
+
+    @Query("SELECT songId FROM song_stats WHERE lastPlayedAt > 0 ORDER BY lastPlayedAt DESC LIMIT :limit")
+    suspend fun getRecentlyPlayedIds(limit: Int): List<Long>
+
+    // Songs once played often that haven't been played since before
+    @Query(
+        "SELECT songId FROM song_stats WHERE lastPlayedAt > 0 AND lastPlayedAt < :before " +
+            "AND playCount >= :minPlays ORDER BY playCount DESC LIMIT :limit"
+    )
+    suspend fun getForgottenIds(before: Long, minPlays: Int, limit: Int): List<Long>
+
+    // Songs
+    @Query("SELECT * FROM songs ORDER BY title ASC, id ASC LIMIT :limit")
+    suspend fun getSongsPage(limit: Int): List<SongEntity>
+
+    // Keyset continuation of getSongsPage; (title, id) is covered by the title index
+    @Query(
+        "SELECT * FROM songs WHERE title > :title OR (title = :title AND id > :id) " +
+            "ORDER BY title ASC, id ASC"
+    )
+    suspend fun getSongsAfter(title: String, id: Long): List<SongEntity>
+
+    @Query("SELECT id FROM songs ORDER BY id ASC")
+    suspend fun getAllSongIds(): List<Long>
+
+    @Query("SELECT * FROM songs WHERE id = :id")
+    suspend fun getSongById(id: Long): SongEntity?
+
+    /**
+     * @param match an FTS query, e.g. `ahm* fay*`; see [FtsQuery]. Title
+     * hits rank first, then artist, album and folder hits.
+     */
+    @Query(
+        "SELECT songs.* FROM songs JOIN songs_fts ON songs.id = songs_fts.rowid " +
+            "WHERE songs_fts MATCH :match " +
+            "ORDER BY CASE " +
+            "WHEN songs.id IN (SELECT rowid FROM songs_fts WHERE title MATCH :match) THEN 0 " +
+            "WHEN songs.id IN (SELECT rowid FROM songs_fts WHERE artist MATCH :match) THEN 1 " +
+            "WHEN songs.id IN (SELECT rowid FROM songs_fts WHERE album MATCH :match) THEN 2 " +
+            "ELSE 3 END, songs.title ASC"
+    )
+    suspend fun searchSongs(match: String): List<SongEntity>
+
+    @Query("SELECT * FROM songs WHERE albumId = :albumId ORDER BY trackNumber ASC")
+    suspend fun getSongsByAlbum(albumId: Long): List<SongEntity>
+
+    @Query("SELECT * FROM songs WHERE artistId = :artistId ORDER BY album ASC, trackNumber ASC, title ASC")
+    suspend fun getSongsByArtist(artistId: Long): List<SongEntity>
+
+    // Subtree as an index range: every descendant path sorts between "p/" and "p0"
+    @Query(
+        "SELECT * FROM songs WHERE folderPath = :folderPath " +
+            "OR (folderPath >= :folderPath || '/' AND folderPath < :folderPath || '0') " +
+            "ORDER BY title ASC"
+    )
+    suspend fun getSongsByFolder(folderPath: String): List<SongEntity>
+
+    @Query(
+        "SELECT songs.* FROM songs INNER JOIN favorites ON favorites.songId = songs.id " +
+            "ORDER BY favorites.addedAt DESC"
+    )
+    suspend fun getFavoriteSongs(): List<SongEntity>
+
+    @Query(
+        "SELECT songs.* FROM playlist_songs INNER JOIN songs ON songs.id = playlist_songs.songId " +
+            "WHERE playlist_songs.playlistId = :playlistId ORDER BY playlist_songs.position ASC"
+    )
+    suspend fun getPlaylistSongs(playlistId: Long): List<SongEntity>
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    suspend fun addRecentSong(recent: RecentSongEntity)
+    suspend fun upsertSongs(songs: List<SongEntity>)
+
+    @Query("DELETE FROM songs WHERE id IN (:ids)")
+    suspend fun deleteSongs(ids: List<Long>)
+
+    @Query("DELETE FROM songs")
+    suspend fun clearSongs()
+
+    @Insert
+    suspend fun insertSongSearchText(rows: List<SongFtsEntity>)
+
+    @Query("DELETE FROM songs_fts WHERE rowid IN (:ids)")
+    suspend fun deleteSongSearchText(ids: List<Long>)
+
+    @Query("DELETE FROM songs_fts")
+    suspend fun clearSongSearchText()
+
+    // Albums, artists and folders (derived from songs on every scan)
+    @Query("SELECT * FROM albums ORDER BY name ASC")
+    fun observeAlbums(): Flow<List<AlbumEntity>>
+
+    @Query("SELECT * FROM artists ORDER BY name ASC")
+    fun observeArtists(): Flow<List<ArtistEntity>>
+
+    @Query("SELECT * FROM folders WHERE parentPath IS NULL ORDER BY name ASC")
+    fun observeRootFolders(): Flow<List<FolderEntity>>
+
+    @Query("SELECT * FROM folders WHERE parentPath = :parentPath ORDER BY name ASC")
+    fun observeSubfolders(parentPath: String): Flow<List<FolderEntity>>
+
+    @Query("SELECT * FROM folders WHERE path = :path")
+    suspend fun getFolder(path: String): FolderEntity?
+
+    @Query("SELECT * FROM albums")
+    suspend fun getAlbums(): List<AlbumEntity>
+
+    @Query("SELECT * FROM artists")
+    suspend fun getArtists(): List<ArtistEntity>
+
+    @Query("SELECT * FROM folders")
+    suspend fun getFolders(): List<FolderEntity>
+
+    @Query("DELETE FROM albums")
+    suspend fun clearAlbums()
+
+    @Query(
+        "INSERT INTO albums (id, name, artist, songCount, year) " +
+            "SELECT albumId, MAX(album), MAX(artist), COUNT(*), MAX(year) FROM songs GROUP BY albumId"
+    )
+    suspend fun rebuildAlbums()
+
+    @Query("DELETE FROM artists")
+    suspend fun clearArtists()
+
+    @Query(
+        "INSERT INTO artists (id, name, albumCount, songCount) " +
+            "SELECT artistId, MAX(artist), COUNT(DISTINCT albumId), COUNT(*) FROM songs GROUP BY artistId"
+    )
+    suspend fun rebuildArtists()
+
+    @Query(
+        "SELECT folderPath AS path, COUNT(*) AS songCount, SUM(duration) AS totalDuration " +
+            "FROM songs GROUP BY folderPath"
+    )
+    suspend fun getFolderStats(): List<FolderStats>
+
+    @Query("DELETE FROM folders")
+    suspend fun clearFolders()
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertFolders(folders: List<FolderEntity>)
+
+    // Library scan state
+    @Query("SELECT * FROM library_state WHERE id = 0")
+    suspend fun getLibraryState(): LibraryStateEntity?
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun setLibraryState(state: LibraryStateEntity)
+
+    @Transaction
+    suspend fun applyLibraryDelta(
+        upserts: List<SongEntity>,
+        deletedIds: List<Long>,
+        state: LibraryStateEntity,
+        replaceAll: Boolean
+    ) {
+        if (replaceAll) {
+            clearSongs()
+            clearSongSearchText()
+        }
+        // SQLite caps bound variables at 999 per statement
+        deletedIds.chunked(500).forEach {
+            deleteSongs(it)
+            deleteSongSearchText(it)
+        }
+        upsertSongs(upserts)
+        if (!replaceAll) upserts.map { it.id }.chunked(500).forEach { deleteSongSearchText(it) }
+        insertSongSearchText(upserts.map { it.toSearchText() })
+
+        clearAlbums()
+        rebuildAlbums()
+        clearArtists()
+        rebuildArtists()
+        clearFolders()
+        insertFolders(FolderTree.build(getFolderStats()))
+
+        setLibraryState(state)
+    }
+
+    // Transcripts
+    /** The newest [limit] transcripts, reading only a preview of each text. */
+    @Query(
+        "SELECT id, substr(text, 1, $TRANSCRIPT_PREVIEW) AS preview, " +
+            "length(text) > $TRANSCRIPT_PREVIEW AS truncated, language, timestamp, songTitle " +
+            "FROM transcripts ORDER BY timestamp DESC LIMIT :limit"
+    )
+    fun observeTranscriptPreviews(limit: Int): Flow<List<TranscriptPreview>>
+
+    @Query("SELECT COUNT(*) FROM transcripts")
+    fun observeTranscriptCount(): Flow<Int>
+
+    @Query("SELECT text FROM transcripts WHERE id = :id")
+    suspend fun getTranscriptText(id: Long): String?
+
+    /**
+     * Newest transcripts matching an FTS query built by [FtsQuery]. Only the
+     * matching rows are read, at most [limit] of them.
+     */
+    @Query(
+        "SELECT transcripts.* FROM transcripts JOIN transcripts_fts " +
+            "ON transcripts.id = transcripts_fts.rowid " +
+            "WHERE transcripts_fts MATCH :match " +
+            "ORDER BY transcripts.timestamp DESC LIMIT :limit"
+    )
+    suspend fun searchTranscripts(match: String, limit: Int): List<TranscriptEntity>
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertTranscript(transcript: TranscriptEntity)
+
+    @Insert
+    suspend fun insertTranscriptSearchText(row: TranscriptFtsEntity)
+
+    @Query("DELETE FROM transcripts WHERE id = :id")
+    suspend fun deleteTranscriptRow(id: Long)
+
+    @Query("DELETE FROM transcripts_fts WHERE rowid = :id")
+    suspend fun deleteTranscriptSearchText(id: Long)
+
+    @Query("DELETE FROM transcripts")
+    suspend fun clearTranscriptRows()
+
+    @Query("DELETE FROM transcripts_fts")
+    suspend fun clearTranscriptSearchText()
+
+    @Transaction
+    suspend fun saveTranscript(transcript: TranscriptEntity) {
+        deleteTranscriptSearchText(transcript.id)
+        insertTranscript(transcript)
+        insertTranscriptSearchText(
+            TranscriptFtsEntity(transcript.id, SearchNormalizer.normalize(transcript.text))
+        )
+    }
+
+    @Transaction
+    suspend fun deleteTranscript(id: Long) {
+        deleteTranscriptRow(id)
+        deleteTranscriptSearchText(id)
+    }
 
-    @Query("SELECT * FROM recent_songs ORDER BY playedAt DESC LIMIT 50")
-    fun getRecentSongs(): Flow<List<RecentSongEntity>>
+    @Transaction
+    suspend fun clearTranscripts() {
+        clearTranscriptRows()
+        clearTranscriptSearchText()
+    }
 }
@@ -8,9 +8,20 @@ import androidx.room.RoomDatabase
         FavoriteEntity::class,
         PlaylistEntity::class,
         PlaylistSongEntity::class,
-        RecentSongEntity::class
+        PlayEventEntity::class,
+        SongStatsEntity::class,
+        DailyStatsEntity::class,
+        PlayRollupStateEntity::class,
+        SongEntity::class,
+        SongFtsEntity::class,
+        AlbumEntity::class,
+        ArtistEntity::class,
+        FolderEntity::class,
+        LibraryStateEntity::class,
+        TranscriptEntity::class,
+        TranscriptFtsEntity::class
     ],
-    version = 1,
+    version = Migrations.LATEST,
     exportSchema = false
 )
 abstract class MusicDatabase : RoomDatabase() {
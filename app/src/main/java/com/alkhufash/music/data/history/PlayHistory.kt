@@ -0,0 +1,41 @@
+package com.alkhufash.music.data.history
+
+import android.content.Context
+import android.util.Log
+import com.alkhufash.music.data.db.MusicDao
+import com.alkhufash.music.data.db.PlayEventEntity
+import com.alkhufash.music.worker.PlayStatsWorker
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Appends play events to the log and schedules their rollup. Writes run on
+ * a scope of their own so an event recorded as the service stops still lands.
+ */
+@Singleton
+class PlayHistory @Inject constructor(
+    private val musicDao: MusicDao,
+    @ApplicationContext private val context: Context
+) {
+    companion object {
+        private const val TAG = "PlayHistory"
+    }
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    fun record(event: PlayEventEntity) {
+        scope.launch {
+            try {
+                musicDao.insertPlayEvent(event)
+                PlayStatsWorker.schedule(context)
+            } catch (e: Exception) {
+                Log.w(TAG, "play event dropped", e)
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Artist grouping key. MediaStore ARTIST_ID is used when present; rows without
+ * one are grouped by a hash of the normalized name, kept negative so it can
+ * never collide with a real id.
+ */
+object ArtistKey {
+
+    private val WHITESPACE = Regex("\\s+")
+
+    fun of(artistId: Long, name: String): Long {
+        return if (artistId > 0) artistId else fromName(name)
+    }
+
+    fun fromName(name: String): Long {
+        // FNV-1a, 64-bit
+        var hash = -3750763034362895579L
+        for (c in normalize(name)) {
+            hash = (hash xor c.code.toLong()) * 1099511628211L
+        }
+        return hash or Long.MIN_VALUE
+    }
+
+    private fun normalize(name: String): String {
+        return name.trim().lowercase().replace(WHITESPACE, " ")
+    }
+}
@@ -0,0 +1,75 @@
+package com.alkhufash.music.data.index
+
+import com.alkhufash.music.data.db.FolderEntity
+import com.alkhufash.music.data.db.FolderStats
+
+/**
+ * Builds the persisted folder trie from per-folder song aggregates. Work is
+ * proportional to the number of distinct folders, not songs.
+ *
+ * The shared prefix every song lives under (e.g. /storage/emulated/0) is
+ * collapsed, so the roots are the first folders where the tree branches or
+ * songs appear.
+ */
+object FolderTree {
+
+    private class Node(val path: String, val name: String) {
+        val children = HashMap<String, Node>()
+        var directSongs = 0
+        var totalSongs = 0
+        var totalDuration = 0L
+    }
+
+    fun build(stats: List<FolderStats>): List<FolderEntity> {
+        val root = Node("", "")
+        for (stat in stats) {
+            if (stat.path.isBlank()) continue
+            var node = root
+            for (segment in stat.path.split('/')) {
+                if (segment.isEmpty()) continue
+                val parent = node
+                node = parent.children.getOrPut(segment) { Node("${parent.path}/$segment", segment) }
+            }
+            node.directSongs += stat.songCount
+            node.totalDuration += stat.totalDuration
+        }
+        accumulate(root)
+
+        var top = root
+        while (top.directSongs == 0 && top.children.size == 1) {
+            top = top.children.values.first()
+        }
+        val roots = if (top.directSongs == 0) top.children.values else listOf(top)
+
+        val folders = ArrayList<FolderEntity>()
+        for (node in roots) emit(node, parentPath = null, into = folders)
+        return folders
+    }
+
+    private fun accumulate(node: Node) {
+        var songs = node.directSongs
+        var duration = node.totalDuration
+        for (child in node.children.values) {
+            accumulate(child)
+            songs += child.totalSongs
+            duration += child.totalDuration
+        }
+        node.totalSongs = songs
+        node.totalDuration = duration
+    }
+
+    private fun emit(node: Node, parentPath: String?, into: MutableList<FolderEntity>) {
+        into.add(
+            FolderEntity(
+                path = node.path,
+                parentPath = parentPath,
+                name = node.name,
+                songCount = node.totalSongs,
+                directSongCount = node.directSongs,
+                totalDuration = node.totalDuration,
+                subfolderCount = node.children.size
+            )
+        )
+        for (child in node.children.values) emit(child, node.path, into)
+    }
+}
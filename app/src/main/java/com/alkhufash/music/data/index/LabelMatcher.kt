@@ -0,0 +1,85 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Matches normalized query terms against the words of one display label,
+ * reporting which characters of the original label matched (diacritics and
+ * all) and a score for ranking it against other hits.
+ */
+object LabelMatcher {
+
+    private const val TYPO_PENALTY = 15
+
+    class Match(
+        val ranges: List<IntRange>,
+        val matchedTerms: Int,
+        /** The label's first word matched a query term. */
+        val leading: Boolean,
+        /** The label's words are exactly the query's terms. */
+        val whole: Boolean
+    )
+
+    /** Best score a hit with [typoCost] can get, before looking at its label. */
+    fun maxScore(typoCost: Int, boost: Int): Int = 100 - TYPO_PENALTY * typoCost + boost
+
+    fun score(match: Match, termCount: Int, typoCost: Int, boost: Int): Int {
+        val base = when {
+            match.whole -> 100
+            match.matchedTerms == termCount && match.leading -> 80
+            match.matchedTerms == termCount -> 60
+            // The rest matched through another field, e.g. a song through its artist
+            else -> 40 * match.matchedTerms / termCount
+        }
+        return base - TYPO_PENALTY * typoCost + boost
+    }
+
+    fun match(label: String, queryTerms: List<String>): Match {
+        val ranges = ArrayList<IntRange>()
+        val matched = BooleanArray(queryTerms.size)
+        var leading = false
+        var words = 0
+        var wholeSoFar = true
+
+        val word = StringBuilder()
+        // Original index of each character of word, to map matches back
+        val origins = IntArray(label.length)
+
+        fun endWord() {
+            if (word.isEmpty()) return
+            var best = -1
+            for (t in queryTerms.indices) {
+                val term = queryTerms[t]
+                if (word.startsWith(term) && (best < 0 || term.length > queryTerms[best].length)) best = t
+            }
+            if (best >= 0) {
+                matched[best] = true
+                var end = origins[queryTerms[best].length - 1]
+                // Keep the marks sitting on the last matched letter
+                while (end + 1 < label.length && SearchNormalizer.fold(label[end + 1]) == SearchNormalizer.STRIP) end++
+                ranges.add(origins[0]..end)
+                if (words == 0) leading = true
+            }
+            if (words >= queryTerms.size || word.toString() != queryTerms[words]) wholeSoFar = false
+            words++
+            word.setLength(0)
+        }
+
+        for (i in label.indices) {
+            val folded = SearchNormalizer.fold(label[i])
+            if (folded == SearchNormalizer.STRIP) continue
+            if (Character.isLetterOrDigit(folded)) {
+                origins[word.length] = i
+                word.append(folded)
+            } else {
+                endWord()
+            }
+        }
+        endWord()
+
+        return Match(
+            ranges = ranges,
+            matchedTerms = matched.count { it },
+            leading = leading,
+            whole = wholeSoFar && words == queryTerms.size
+        )
+    }
+}
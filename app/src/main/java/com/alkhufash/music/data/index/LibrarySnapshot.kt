@@ -0,0 +1,217 @@
+package com.alkhufash.music.data.index
+
+import com.alkhufash.music.domain.model.Song
+
+/**
+ * Column-oriented copy of the library for very large collections. Numeric
+ * fields live in parallel primitive arrays. Artist, album and folder names are
+ * dictionary-encoded, and a path is stored as its folder code plus file name.
+ * Nothing per track is an object except the title and file name strings.
+ *
+ * [asList] exposes the rows as a read-only List<Song> that materializes a
+ * Song only when an element is read, so a LazyColumn allocates per visible row.
+ */
+class LibrarySnapshot private constructor(
+    val size: Int,
+    private val ids: LongArray,
+    private val albumIds: LongArray,
+    private val artistIds: LongArray,
+    private val durations: LongArray,
+    private val sizes: LongArray,
+    private val datesAdded: LongArray,
+    private val datesModified: LongArray,
+    private val trackNumbers: IntArray,
+    private val years: IntArray,
+    private val titles: Array<String?>,
+    private val fileNames: Array<String?>,
+    private val artistCodes: IntArray,
+    private val albumCodes: IntArray,
+    private val folderCodes: IntArray,
+    private val dictionary: StringDictionary
+) {
+    fun id(row: Int): Long = ids[row]
+    fun title(row: Int): String = titles[row]!!
+    fun duration(row: Int): Long = durations[row]
+    fun albumId(row: Int): Long = albumIds[row]
+    fun artistId(row: Int): Long = artistIds[row]
+
+    fun songAt(row: Int): Song {
+        val folderCode = folderCodes[row]
+        val fileName = fileNames[row]!!
+        return Song(
+            id = ids[row],
+            title = titles[row]!!,
+            artist = dictionary[artistCodes[row]],
+            artistId = artistIds[row],
+            album = dictionary[albumCodes[row]],
+            albumId = albumIds[row],
+            duration = durations[row],
+            path = if (folderCode < 0) fileName else "${dictionary[folderCode]}/$fileName",
+            size = sizes[row],
+            dateAdded = datesAdded[row],
+            dateModified = datesModified[row],
+            trackNumber = trackNumbers[row],
+            year = years[row]
+        )
+    }
+
+    /** Rows whose columns satisfy [predicate], scanned without materializing songs. */
+    inline fun filterRows(predicate: (row: Int) -> Boolean): IntArray {
+        val rows = IntArray(size)
+        var count = 0
+        for (row in 0 until size) {
+            if (predicate(row)) rows[count++] = row
+        }
+        return rows.copyOf(count)
+    }
+
+    fun asList(): List<Song> = SongListView(this)
+
+    /** A builder that can copy rows out of this snapshot without re-encoding them. */
+    fun newBuilder(capacity: Int = size): Builder = Builder(capacity, dictionary.copy(), base = this)
+
+    class SongListView internal constructor(val snapshot: LibrarySnapshot) : AbstractList<Song>(), RandomAccess {
+        override val size: Int
+            get() = snapshot.size
+
+        override fun get(index: Int): Song = snapshot.songAt(index)
+    }
+
+    class Builder internal constructor(
+        capacity: Int,
+        private val dictionary: StringDictionary,
+        private val base: LibrarySnapshot?
+    ) {
+        constructor(capacity: Int = 256) : this(capacity, StringDictionary(), base = null)
+
+        private var size = 0
+        private var ids = LongArray(maxOf(capacity, 16))
+        private var albumIds = LongArray(ids.size)
+        private var artistIds = LongArray(ids.size)
+        private var durations = LongArray(ids.size)
+        private var sizes = LongArray(ids.size)
+        private var datesAdded = LongArray(ids.size)
+        private var datesModified = LongArray(ids.size)
+        private var trackNumbers = IntArray(ids.size)
+        private var years = IntArray(ids.size)
+        private var titles = arrayOfNulls<String>(ids.size)
+        private var fileNames = arrayOfNulls<String>(ids.size)
+        private var artistCodes = IntArray(ids.size)
+        private var albumCodes = IntArray(ids.size)
+        private var folderCodes = IntArray(ids.size)
+
+        fun add(song: Song): Builder {
+            val row = nextRow()
+            ids[row] = song.id
+            albumIds[row] = song.albumId
+            artistIds[row] = song.artistId
+            durations[row] = song.duration
+            sizes[row] = song.size
+            datesAdded[row] = song.dateAdded
+            datesModified[row] = song.dateModified
+            trackNumbers[row] = song.trackNumber
+            years[row] = song.year
+            titles[row] = song.title
+            val slash = song.path.lastIndexOf('/')
+            fileNames[row] = if (slash >= 0) song.path.substring(slash + 1) else song.path
+            artistCodes[row] = dictionary.encode(song.artist)
+            albumCodes[row] = dictionary.encode(song.album)
+            // -1: the path had no folder part at all
+            folderCodes[row] = if (slash >= 0) dictionary.encode(song.path.substring(0, slash)) else -1
+            return this
+        }
+
+        /** Copies a row of the snapshot this builder was created from. */
+        fun addRow(row: Int): Builder {
+            val source = checkNotNull(base) { "builder has no base snapshot" }
+            val target = nextRow()
+            ids[target] = source.ids[row]
+            albumIds[target] = source.albumIds[row]
+            artistIds[target] = source.artistIds[row]
+            durations[target] = source.durations[row]
+            sizes[target] = source.sizes[row]
+            datesAdded[target] = source.datesAdded[row]
+            datesModified[target] = source.datesModified[row]
+            trackNumbers[target] = source.trackNumbers[row]
+            years[target] = source.years[row]
+            titles[target] = source.titles[row]
+            fileNames[target] = source.fileNames[row]
+            // The dictionary started as a copy of the base's, so codes carry over
+            artistCodes[target] = source.artistCodes[row]
+            albumCodes[target] = source.albumCodes[row]
+            folderCodes[target] = source.folderCodes[row]
+            return this
+        }
+
+        fun build(): LibrarySnapshot = LibrarySnapshot(
+            size = size,
+            ids = ids.copyOf(size),
+            albumIds = albumIds.copyOf(size),
+            artistIds = artistIds.copyOf(size),
+            durations = durations.copyOf(size),
+            sizes = sizes.copyOf(size),
+            datesAdded = datesAdded.copyOf(size),
+            datesModified = datesModified.copyOf(size),
+            trackNumbers = trackNumbers.copyOf(size),
+            years = years.copyOf(size),
+            titles = titles.copyOf(size),
+            fileNames = fileNames.copyOf(size),
+            artistCodes = artistCodes.copyOf(size),
+            albumCodes = albumCodes.copyOf(size),
+            folderCodes = folderCodes.copyOf(size),
+            dictionary = dictionary
+        )
+
+        private fun nextRow(): Int {
+            if (size == ids.size) grow(ids.size * 2)
+            return size++
+        }
+
+        private fun grow(capacity: Int) {
+            ids = ids.copyOf(capacity)
+            albumIds = albumIds.copyOf(capacity)
+            artistIds = artistIds.copyOf(capacity)
+            durations = durations.copyOf(capacity)
+            sizes = sizes.copyOf(capacity)
+            datesAdded = datesAdded.copyOf(capacity)
+            datesModified = datesModified.copyOf(capacity)
+            trackNumbers = trackNumbers.copyOf(capacity)
+            years = years.copyOf(capacity)
+            titles = titles.copyOf(capacity)
+            fileNames = fileNames.copyOf(capacity)
+            artistCodes = artistCodes.copyOf(capacity)
+            albumCodes = albumCodes.copyOf(capacity)
+            folderCodes = folderCodes.copyOf(capacity)
+        }
+    }
+
+    companion object {
+        fun of(songs: List<Song>): LibrarySnapshot {
+            val builder = Builder(songs.size)
+            for (song in songs) builder.add(song)
+            return builder.build()
+        }
+    }
+}
+
+/** Append-only string <-> code table shared by the encoded columns of one snapshot. */
+class StringDictionary private constructor(
+    private val values: ArrayList<String>,
+    private val codes: HashMap<String, Int>
+) {
+    constructor() : this(ArrayList(), HashMap())
+
+    val size: Int
+        get() = values.size
+
+    operator fun get(code: Int): String = values[code]
+
+    fun encode(value: String): Int {
+        return codes.getOrPut(value) {
+            values.add(value)
+            values.size - 1
+        }
+    }
+
+    fun copy(): StringDictionary = StringDictionary(ArrayList(values), HashMap(codes))
+}
@@ -0,0 +1,109 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Open-addressing set of primitive longs, e.g. favorite song ids. Same layout
+ * as [LongIntMap]; removal shifts the following run back instead of leaving
+ * tombstones, so lookups stay short after many toggles.
+ */
+class LongHashSet(expectedSize: Int = 16) {
+
+    private var keys = LongArray(0)
+    private var used = BooleanArray(0)
+    private var mask = 0
+
+    var size = 0
+        private set
+
+    init {
+        var capacity = 4
+        while (capacity * 3 < expectedSize * 4 + 1) capacity = capacity shl 1
+        allocate(capacity)
+    }
+
+    operator fun contains(key: Long): Boolean {
+        var i = slot(key)
+        while (used[i]) {
+            if (keys[i] == key) return true
+            i = (i + 1) and mask
+        }
+        return false
+    }
+
+    /** @return false if [key] was already present */
+    fun add(key: Long): Boolean {
+        if ((size + 1) * 4 > keys.size * 3) rehash(keys.size * 2)
+        var i = slot(key)
+        while (used[i]) {
+            if (keys[i] == key) return false
+            i = (i + 1) and mask
+        }
+        keys[i] = key
+        used[i] = true
+        size++
+        return true
+    }
+
+    /** @return false if [key] was absent */
+    fun remove(key: Long): Boolean {
+        var i = slot(key)
+        while (used[i]) {
+            if (keys[i] == key) {
+                shiftBack(i)
+                size--
+                return true
+            }
+            i = (i + 1) and mask
+        }
+        return false
+    }
+
+    fun copy(): LongHashSet {
+        val copy = LongHashSet(0)
+        copy.keys = keys.copyOf()
+        copy.used = used.copyOf()
+        copy.mask = mask
+        copy.size = size
+        return copy
+    }
+
+    // Fills the hole at gap with the next entry of its run that may move there
+    private fun shiftBack(hole: Int) {
+        var gap = hole
+        var i = (gap + 1) and mask
+        while (used[i]) {
+            val home = slot(keys[i])
+            // Movable unless its home lies cyclically in (gap, i]
+            if (((i - home) and mask) >= ((i - gap) and mask)) {
+                keys[gap] = keys[i]
+                used[gap] = true
+                gap = i
+            }
+            i = (i + 1) and mask
+        }
+        used[gap] = false
+    }
+
+    private fun rehash(newCapacity: Int) {
+        val oldKeys = keys
+        val oldUsed = used
+        allocate(newCapacity)
+        for (i in oldUsed.indices) {
+            if (!oldUsed[i]) continue
+            var j = slot(oldKeys[i])
+            while (used[j]) j = (j + 1) and mask
+            keys[j] = oldKeys[i]
+            used[j] = true
+        }
+    }
+
+    private fun allocate(capacity: Int) {
+        keys = LongArray(capacity)
+        used = BooleanArray(capacity)
+        mask = capacity - 1
+    }
+
+    private fun slot(key: Long): Int {
+        val h = key * -7046029254386353131L
+        return (h xor (h ushr 32)).toInt() and mask
+    }
+}
@@ -0,0 +1,78 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Open-addressing map from primitive long to non-negative int, e.g. song id to
+ * row. Same layout as [LongObjectMap] but with an IntArray of values, so a
+ * mapping costs twelve bytes and no objects. [get] returns -1 when absent.
+ */
+class LongIntMap(expectedSize: Int = 16) {
+
+    private var keys = LongArray(0)
+    // value + 1, so 0 marks an empty slot
+    private var values = IntArray(0)
+    private var mask = 0
+
+    var size = 0
+        private set
+
+    init {
+        var capacity = 4
+        while (capacity * 3 < expectedSize * 4 + 1) capacity = capacity shl 1
+        allocate(capacity)
+    }
+
+    operator fun get(key: Long): Int {
+        var i = slot(key)
+        while (true) {
+            val stored = values[i]
+            if (stored == 0) return -1
+            if (keys[i] == key) return stored - 1
+            i = (i + 1) and mask
+        }
+    }
+
+    fun containsKey(key: Long): Boolean = get(key) >= 0
+
+    operator fun set(key: Long, value: Int) {
+        require(value >= 0) { "negative value $value" }
+        if ((size + 1) * 4 > values.size * 3) rehash(values.size * 2)
+        var i = slot(key)
+        while (true) {
+            if (values[i] == 0) {
+                keys[i] = key
+                values[i] = value + 1
+                size++
+                return
+            }
+            if (keys[i] == key) {
+                values[i] = value + 1
+                return
+            }
+            i = (i + 1) and mask
+        }
+    }
+
+    private fun rehash(newCapacity: Int) {
+        val oldKeys = keys
+        val oldValues = values
+        allocate(newCapacity)
+        for (i in oldValues.indices) {
+            if (oldValues[i] == 0) continue
+            var j = slot(oldKeys[i])
+            while (values[j] != 0) j = (j + 1) and mask
+            keys[j] = oldKeys[i]
+            values[j] = oldValues[i]
+        }
+    }
+
+    private fun allocate(capacity: Int) {
+        keys = LongArray(capacity)
+        values = IntArray(capacity)
+        mask = capacity - 1
+    }
+
+    private fun slot(key: Long): Int {
+        val h = key * -7046029254386353131L
+        return (h xor (h ushr 32)).toInt() and mask
+    }
+}
@@ -0,0 +1,136 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Open-addressing hash map keyed by primitive longs. Unlike HashMap<Long, V> it
+ * boxes no keys and allocates no entry node per mapping; lookups probe two flat
+ * arrays. Not thread-safe: build it once, then publish it read-only.
+ */
+class LongObjectMap<V : Any>(expectedSize: Int = 16) {
+
+    private var keys = LongArray(0)
+    private var values = arrayOfNulls<Any>(0)
+    private var mask = 0
+
+    var size = 0
+        private set
+
+    init {
+        allocate(capacityFor(expectedSize))
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    operator fun get(key: Long): V? {
+        var i = slot(key)
+        while (true) {
+            val value = values[i] ?: return null
+            if (keys[i] == key) return value as V
+            i = (i + 1) and mask
+        }
+    }
+
+    fun containsKey(key: Long): Boolean = get(key) != null
+
+    operator fun set(key: Long, value: V) {
+        put(key, value)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun put(key: Long, value: V): V? {
+        if ((size + 1) * 4 > values.size * 3) rehash(values.size * 2)
+        var i = slot(key)
+        while (true) {
+            val existing = values[i]
+            if (existing == null) {
+                keys[i] = key
+                values[i] = value
+                size++
+                return null
+            }
+            if (keys[i] == key) {
+                values[i] = value
+                return existing as V
+            }
+            i = (i + 1) and mask
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun remove(key: Long): V? {
+        var i = slot(key)
+        while (true) {
+            val existing = values[i] ?: return null
+            if (keys[i] == key) {
+                size--
+                closeGap(i)
+                return existing as V
+            }
+            i = (i + 1) and mask
+        }
+    }
+
+    /** Shallow copy: flat array clones, no rehashing. */
+    fun copy(): LongObjectMap<V> {
+        val copy = LongObjectMap<V>(0)
+        copy.keys = keys.copyOf()
+        copy.values = values.copyOf()
+        copy.mask = mask
+        copy.size = size
+        return copy
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun forEach(action: (key: Long, value: V) -> Unit) {
+        for (i in values.indices) {
+            val value = values[i] ?: continue
+            action(keys[i], value as V)
+        }
+    }
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    private fun closeGap(start: Int) {
+        var gap = start
+        var i = (gap + 1) and mask
+        while (true) {
+            val value = values[i] ?: break
+            val home = slot(keys[i])
+            if (((i - home) and mask) >= ((i - gap) and mask)) {
+                keys[gap] = keys[i]
+                values[gap] = value
+                gap = i
+            }
+            i = (i + 1) and mask
+        }
+        values[gap] = null
+    }
+
+    private fun rehash(newCapacity: Int) {
+        val oldKeys = keys
+        val oldValues = values
+        allocate(newCapacity)
+        size = 0
+        for (i in oldValues.indices) {
+            val value = oldValues[i] ?: continue
+            var j = slot(oldKeys[i])
+            while (values[j] != null) j = (j + 1) and mask
+            keys[j] = oldKeys[i]
+            values[j] = value
+            size++
+        }
+    }
+
+    private fun allocate(capacity: Int) {
+        keys = LongArray(capacity)
+        values = arrayOfNulls(capacity)
+        mask = capacity - 1
+    }
+
+    private fun slot(key: Long): Int {
+        val h = key * -7046029254386353131L
+        return (h xor (h ushr 32)).toInt() and mask
+    }
+
+    private fun capacityFor(expectedSize: Int): Int {
+        val needed = maxOf(4, expectedSize * 4 / 3 + 1)
+        return Integer.highestOneBit(needed - 1) shl 1
+    }
+}
@@ -0,0 +1,75 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Script-neutral consonant skeleton of a normalized term, so an Arabic word
+ * and its Latin transliteration share a key: "عمرو" and "amr" are both "mr",
+ * "دياب" and "diab" both "db", "محمد" and "mohammed" both "mhmd".
+ *
+ * Vowels, long-vowel letters and ain are dropped, letters that transliterate
+ * alike fold to one class (ص س ش and s, sh; خ ق ك and k, q, kh ...), repeats
+ * collapse and a final h is dropped so "فاطمة" matches "fatma" and "fatmah".
+ */
+object PhoneticKey {
+
+    /** Shorter keys match too much of the library to be useful. */
+    const val MIN_LENGTH = 2
+
+    private const val SKIP = '\u0000'
+
+    fun of(term: String): String {
+        // The Arabic article has no consistent Latin spelling (al, el, il or none)
+        val start = if (term.length > 3 && term.startsWith("ال")) 2 else 0
+        val key = StringBuilder(term.length)
+        var i = start
+        while (i < term.length) {
+            val c = term[i]
+            val digraph = if (i + 1 < term.length && term[i + 1] == 'h') digraphOf(c) else SKIP
+            val sound = if (digraph != SKIP) {
+                i += 2
+                digraph
+            } else {
+                i++
+                classOf(c)
+            }
+            if (sound == SKIP) continue
+            if (key.isNotEmpty() && key[key.length - 1] == sound) continue
+            key.append(sound)
+        }
+        if (key.length > 1 && key[key.length - 1] == 'h') key.setLength(key.length - 1)
+        return key.toString()
+    }
+
+    private fun digraphOf(c: Char): Char = when (c) {
+        's', 'c' -> 's'
+        'k' -> 'k'
+        't' -> 't'
+        'd' -> 'd'
+        'g' -> 'j'
+        else -> SKIP
+    }
+
+    private fun classOf(c: Char): Char = when (c) {
+        'a', 'e', 'i', 'o', 'u', 'y', 'w' -> SKIP
+        'b', 'p' -> 'b'
+        'c', 'k', 'q', 'x' -> 'k'
+        'f', 'v' -> 'f'
+        'g', 'j' -> 'j'
+        'd', 'h', 'l', 'm', 'n', 'r', 's', 't', 'z' -> c
+        'ا', 'و', 'ي', 'ء', 'ؤ', 'ئ', 'ع' -> SKIP
+        'ب', 'پ' -> 'b'
+        'ت', 'ث', 'ط' -> 't'
+        'ج', 'غ', 'گ' -> 'j'
+        'ح', 'ه' -> 'h'
+        'خ', 'ق', 'ك', 'ک' -> 'k'
+        'د', 'ذ', 'ض' -> 'd'
+        'ر' -> 'r'
+        'ز', 'ظ', 'ژ' -> 'z'
+        'س', 'ش', 'ص', 'چ' -> 's'
+        'ف' -> 'f'
+        'ل' -> 'l'
+        'م' -> 'm'
+        'ن' -> 'n'
+        in '0'..'9' -> c
+        else -> SKIP
+    }
+}
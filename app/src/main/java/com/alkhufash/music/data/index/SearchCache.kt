@@ -0,0 +1,55 @@
+package com.alkhufash.music.data.index
+
+import android.util.LruCache
+import com.alkhufash.music.domain.model.CacheStats
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Recent query results as ranked song ids, keyed by the normalized query so
+ * "Ahmed", "ahmed " and "أحمد"/"احمد" variants share an entry. Only full
+ * searches are stored, never results narrowed from an earlier query. Each entry
+ * records the library generation it was computed at and is dropped on read
+ * once the library has moved on.
+ */
+class SearchCache(maxEntries: Int) {
+
+    private class Entry(val generation: Long, val ids: LongArray)
+
+    private val entries = LruCache<String, Entry>(maxEntries)
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    fun get(key: String, generation: Long): LongArray? {
+        val entry = entries.get(key)
+        if (entry == null || entry.generation != generation) {
+            if (entry != null) entries.remove(key)
+            misses.incrementAndGet()
+            return null
+        }
+        hits.incrementAndGet()
+        return entry.ids
+    }
+
+    fun put(key: String, generation: Long, ids: LongArray) {
+        entries.put(key, Entry(generation, ids))
+    }
+
+    fun clear() {
+        entries.evictAll()
+    }
+
+    fun stats(): CacheStats = CacheStats(
+        hits = hits.get(),
+        misses = misses.get(),
+        size = entries.size(),
+        maxSize = entries.maxSize()
+    )
+
+    companion object {
+        /** Cache key for [query]: its normalized terms, or null when it has none. */
+        fun keyOf(query: String): String? {
+            val terms = SearchTokenizer.tokenize(query)
+            return if (terms.isEmpty()) null else terms.joinToString(" ")
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.alkhufash.music.data.index
+
+import com.alkhufash.music.domain.model.Song
+import java.util.TreeMap
+
+/**
+ * Inverted index from title, artist and album terms to the sorted ids of the
+ * songs containing them (or, via [ofNames], from the terms of plain names).
+ * Terms sit in a sorted map so a query term matches every indexed term it is
+ * a prefix of ("ali" finds "alive" and "alim").
+ *
+ * Each term's [PhoneticKey] is kept in a second sorted map, so a query in
+ * Arabic also finds its Latin transliteration and vice versa. A query term
+ * that matches neither way is retried as a typo through [TermTrigrams].
+ *
+ * Like [SongIndex] it is immutable. [applyDelta] copies the maps but rebuilds
+ * only the posting lists of terms the changed songs carry; the trigram index
+ * is rebuilt on the first fuzzy lookup after a change.
+ */
+class SearchIndex private constructor(
+    private val postings: TreeMap<String, LongArray>,
+    // Phonetic key -> the indexed terms that have it
+    private val phonetic: TreeMap<String, Array<String>>
+) {
+    private val trigrams by lazy { TermTrigrams(postings.keys) }
+
+    val termCount: Int
+        get() = postings.size
+
+    /** Songs matching every term of [query]; empty when the query has no terms. */
+    fun search(query: String): SearchHits {
+        val terms = SearchTokenizer.tokenize(query)
+        if (terms.isEmpty()) return SearchHits.NONE
+        // Longest terms first: they tend to match least and shrink the result fastest
+        var result: SearchHits? = null
+        for (term in terms.distinct().sortedByDescending { it.length }) {
+            val matches = termMatches(term)
+            result = if (result == null) matches else intersect(result, matches)
+            if (result.size == 0) break
+        }
+        return result ?: SearchHits.NONE
+    }
+
+    /** [search] for an index built by [ofNames]: positions with their typo cost. */
+    inline fun forEachHit(query: String, action: (position: Int, typoCost: Int) -> Unit) {
+        val hits = search(query)
+        for (i in 0 until hits.size) action(hits.ids[i].toInt(), hits.costs[i])
+    }
+
+    /**
+     * The ids of [candidates], in their given order, that match every term of
+     * [query] as a prefix or by phonetic key: [search] without the typo
+     * fallback, kept to songs an earlier search already found.
+     */
+    fun narrow(candidates: LongArray, query: String): LongArray {
+        val terms = SearchTokenizer.tokenize(query)
+        if (terms.isEmpty() || candidates.isEmpty()) return EMPTY_IDS
+        var matching = distinctSorted(candidates.copyOf())
+        for (term in terms.distinct().sortedByDescending { it.length }) {
+            matching = intersect(matching, union(listOf(prefixMatches(term), phoneticMatches(term))))
+            if (matching.isEmpty()) return EMPTY_IDS
+        }
+        val result = LongArray(matching.size)
+        var count = 0
+        for (id in candidates) {
+            if (matching.binarySearch(id) >= 0) result[count++] = id
+        }
+        return if (count == result.size) result else result.copyOf(count)
+    }
+
+    private fun termMatches(term: String): SearchHits {
+        val exact = prefixMatches(term)
+        val sounds = phoneticMatches(term)
+        if (sounds.isNotEmpty()) return withTransliterations(exact, sounds)
+        if (exact.isNotEmpty()) return SearchHits(exact, IntArray(exact.size))
+        val maxDistance = TermTrigrams.maxDistanceFor(term.length)
+        if (maxDistance == 0) return SearchHits.NONE
+
+        // Cheapest distance per song across every near-miss term it carries
+        val costs = HashMap<Long, Int>()
+        trigrams.match(term, maxDistance) { match, distance ->
+            for (id in postings.getValue(match)) {
+                val known = costs[id]
+                if (known == null || distance < known) costs[id] = distance
+            }
+        }
+        val ids = costs.keys.toLongArray()
+        ids.sort()
+        return SearchHits(ids, IntArray(ids.size) { costs.getValue(ids[it]) })
+    }
+
+    private fun prefixMatches(prefix: String): LongArray {
+        return union(postings.subMap(prefix, true, prefix + Char.MAX_VALUE, false).values)
+    }
+
+    // Songs with a term whose phonetic key starts with the query term's
+    private fun phoneticMatches(term: String): LongArray {
+        val key = PhoneticKey.of(term)
+        if (key.length < PhoneticKey.MIN_LENGTH) return EMPTY_IDS
+        val lists = ArrayList<LongArray>()
+        for (terms in phonetic.subMap(key, true, key + Char.MAX_VALUE, false).values) {
+            for (match in terms) lists.add(postings.getValue(match))
+        }
+        return union(lists)
+    }
+
+    // Exact hits cost nothing; ones found only through transliteration cost one
+    private fun withTransliterations(exact: LongArray, sounds: LongArray): SearchHits {
+        val ids = union(listOf(exact, sounds))
+        val costs = IntArray(ids.size) { if (exact.binarySearch(ids[it]) >= 0) 0 else 1 }
+        return SearchHits(ids, costs)
+    }
+
+    fun applyDelta(removed: Collection<Song>, added: Collection<Song>): SearchIndex {
+        if (removed.isEmpty() && added.isEmpty()) return this
+        val removedByTerm = termsOf(removed)
+        val addedByTerm = termsOf(added)
+
+        val result = TreeMap(postings)
+        val keys = TreeMap(phonetic)
+        for (term in removedByTerm.keys + addedByTerm.keys) {
+            val drop = removedByTerm[term]
+            val kept = postings[term]?.let { ids ->
+                if (drop == null) ids else ids.filterNot { drop.contains(it) }.toLongArray()
+            } ?: EMPTY_IDS
+            val ids = addedByTerm[term]?.let { extra -> distinctSorted(kept + extra.toLongArray()) } ?: kept
+            if (ids.isEmpty()) {
+                if (result.remove(term) != null) updateKey(keys, term) { terms -> terms.filter { it != term }.toTypedArray() }
+            } else {
+                if (result.put(term, ids) == null) updateKey(keys, term) { it + term }
+            }
+        }
+        return SearchIndex(result, keys)
+    }
+
+    companion object {
+        private val EMPTY_IDS = LongArray(0)
+
+        val EMPTY = SearchIndex(TreeMap(), TreeMap())
+
+        fun build(songs: Collection<Song>): SearchIndex = fromTerms(termsOf(songs))
+
+        /** Indexes one name per item; hit ids are positions in [names]. */
+        fun ofNames(names: List<String>): SearchIndex {
+            val byTerm = HashMap<String, HashSet<Long>>()
+            val terms = HashSet<String>()
+            names.forEachIndexed { position, name ->
+                terms.clear()
+                SearchTokenizer.tokenize(name, terms)
+                for (term in terms) byTerm.getOrPut(term) { HashSet() }.add(position.toLong())
+            }
+            return fromTerms(byTerm)
+        }
+
+        private fun fromTerms(byTerm: Map<String, Set<Long>>): SearchIndex {
+            val postings = TreeMap<String, LongArray>()
+            byTerm.forEach { (term, ids) -> postings[term] = distinctSorted(ids.toLongArray()) }
+            val byKey = HashMap<String, ArrayList<String>>()
+            for (term in postings.keys) {
+                val key = PhoneticKey.of(term)
+                if (key.length >= PhoneticKey.MIN_LENGTH) byKey.getOrPut(key) { ArrayList() }.add(term)
+            }
+            val phonetic = TreeMap<String, Array<String>>()
+            byKey.forEach { (key, terms) -> phonetic[key] = terms.toTypedArray() }
+            return SearchIndex(postings, phonetic)
+        }
+
+        private inline fun updateKey(
+            keys: TreeMap<String, Array<String>>,
+            term: String,
+            change: (Array<String>) -> Array<String>
+        ) {
+            val key = PhoneticKey.of(term)
+            if (key.length < PhoneticKey.MIN_LENGTH) return
+            val terms = change(keys[key] ?: emptyArray())
+            if (terms.isEmpty()) keys.remove(key) else keys[key] = terms
+        }
+
+        /**
+         * Whether every song matching [query] also matched [previous], so [narrow]
+         * over the previous results loses nothing. Each previous term needs a new
+         * term it is a prefix of whose phonetic matches are no wider than its own;
+         * a key that grows past [PhoneticKey.MIN_LENGTH], a dropped article or a
+         * new digraph ("c" to "ch") each change the key rather than extend it.
+         */
+        fun narrows(previous: String, query: String): Boolean {
+            val before = SearchTokenizer.tokenize(previous)
+            val after = SearchTokenizer.tokenize(query)
+            if (before.isEmpty()) return false
+            return before.all { old -> after.any { it.startsWith(old) && soundsNarrower(old, it) } }
+        }
+
+        private fun soundsNarrower(old: String, new: String): Boolean {
+            val newKey = PhoneticKey.of(new)
+            if (newKey.length < PhoneticKey.MIN_LENGTH) return true
+            val oldKey = PhoneticKey.of(old)
+            return oldKey.length >= PhoneticKey.MIN_LENGTH && newKey.startsWith(oldKey)
+        }
+
+        private fun union(lists: Collection<LongArray>): LongArray {
+            if (lists.isEmpty()) return EMPTY_IDS
+            if (lists.size == 1) return lists.first()
+            var total = 0
+            for (ids in lists) total += ids.size
+            val all = LongArray(total)
+            var offset = 0
+            for (ids in lists) {
+                ids.copyInto(all, offset)
+                offset += ids.size
+            }
+            return distinctSorted(all)
+        }
+
+        private fun termsOf(songs: Collection<Song>): HashMap<String, HashSet<Long>> {
+            val byTerm = HashMap<String, HashSet<Long>>()
+            val terms = HashSet<String>()
+            for (song in songs) {
+                terms.clear()
+                SearchTokenizer.tokenize(song.title, terms)
+                SearchTokenizer.tokenize(song.artist, terms)
+                SearchTokenizer.tokenize(song.album, terms)
+                for (term in terms) byTerm.getOrPut(term) { HashSet() }.add(song.id)
+            }
+            return byTerm
+        }
+
+        private fun distinctSorted(ids: LongArray): LongArray {
+            if (ids.size < 2) return ids
+            ids.sort()
+            var count = 1
+            for (i in 1 until ids.size) {
+                if (ids[i] != ids[count - 1]) ids[count++] = ids[i]
+            }
+            return if (count == ids.size) ids else ids.copyOf(count)
+        }
+
+        private fun intersect(a: LongArray, b: LongArray): LongArray {
+            val ids = LongArray(minOf(a.size, b.size))
+            var i = 0
+            var j = 0
+            var count = 0
+            while (i < a.size && j < b.size) {
+                when {
+                    a[i] < b[j] -> i++
+                    a[i] > b[j] -> j++
+                    else -> {
+                        ids[count++] = a[i]
+                        i++
+                        j++
+                    }
+                }
+            }
+            return if (count == ids.size) ids else ids.copyOf(count)
+        }
+
+        private fun intersect(a: SearchHits, b: SearchHits): SearchHits {
+            val size = minOf(a.size, b.size)
+            val ids = LongArray(size)
+            val costs = IntArray(size)
+            var i = 0
+            var j = 0
+            var count = 0
+            while (i < a.size && j < b.size) {
+                when {
+                    a.ids[i] < b.ids[j] -> i++
+                    a.ids[i] > b.ids[j] -> j++
+                    else -> {
+                        ids[count] = a.ids[i]
+                        costs[count++] = a.costs[i] + b.costs[j]
+                        i++
+                        j++
+                    }
+                }
+            }
+            return SearchHits(ids.copyOf(count), costs.copyOf(count))
+        }
+    }
+}
+
+/**
+ * Matching song ids sorted ascending, each with its typo cost: the summed edit
+ * distance of its fuzzy term matches plus one per term matched only by
+ * transliteration, 0 when every term matched exactly.
+ */
+class SearchHits(val ids: LongArray, val costs: IntArray) {
+    val size: Int
+        get() = ids.size
+
+    companion object {
+        val NONE = SearchHits(LongArray(0), IntArray(0))
+    }
+}
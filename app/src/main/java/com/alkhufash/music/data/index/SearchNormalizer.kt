@@ -0,0 +1,35 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Folds text to the form search compares on: lowercase, Arabic diacritics and
+ * tatweel removed, and letters that people type interchangeably collapsed to
+ * one, so "أحمد", "إحمد" and "احمد" are the same term, as are "مُحَمَّد" and
+ * "محمد", "مدرسة" and "مدرسه", "على" and "علي".
+ *
+ * Applied when a song is indexed and once per query, never per song per keystroke.
+ */
+object SearchNormalizer {
+
+    /** Returned by [fold] for characters that are dropped. */
+    const val STRIP = '\u0000'
+
+    fun fold(c: Char): Char = when (c) {
+        // Harakat, tanween, shadda, sukun, superscript alef and Quranic marks
+        in '\u064B'..'\u065F', '\u0670', in '\u06D6'..'\u06ED' -> STRIP
+        '\u0640' -> STRIP // tatweel
+        'آ', 'أ', 'إ', 'ٱ' -> 'ا'
+        'ى', 'ی' -> 'ي'
+        'ة' -> 'ه'
+        in 'A'..'Z' -> c + 32
+        else -> if (c < '\u0080') c else c.lowercaseChar()
+    }
+
+    fun normalize(text: String): String {
+        val out = StringBuilder(text.length)
+        for (c in text) {
+            val folded = fold(c)
+            if (folded != STRIP) out.append(folded)
+        }
+        return out.toString()
+    }
+}
@@ -0,0 +1,27 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Splits text into normalized search terms (see [SearchNormalizer]) on anything
+ * that isn't a letter or digit. Diacritics are dropped rather than treated as
+ * separators, so they never split a word. Used for both indexed fields and
+ * queries so the two always agree.
+ */
+object SearchTokenizer {
+
+    fun tokenize(text: String, into: MutableCollection<String>) {
+        val term = StringBuilder()
+        for (c in text) {
+            val folded = SearchNormalizer.fold(c)
+            if (folded == SearchNormalizer.STRIP) continue
+            if (Character.isLetterOrDigit(folded)) {
+                term.append(folded)
+            } else if (term.isNotEmpty()) {
+                into.add(term.toString())
+                term.setLength(0)
+            }
+        }
+        if (term.isNotEmpty()) into.add(term.toString())
+    }
+
+    fun tokenize(text: String): List<String> = ArrayList<String>().also { tokenize(text, it) }
+}
@@ -0,0 +1,38 @@
+package com.alkhufash.music.data.index
+
+/** A short window of a longer text, with the ranges of it that matched a query. */
+class Snippet(val text: String, val highlights: List<IntRange>) {
+
+    companion object {
+        private const val ELLIPSIS = "…"
+
+        /**
+         * The part of [text] around its first match of [queryTerms], at most
+         * about [length] characters, cut at word boundaries. Starts at the
+         * beginning of [text] when nothing matches.
+         */
+        fun of(text: String, queryTerms: List<String>, length: Int = 160): Snippet {
+            val ranges = LabelMatcher.match(text, queryTerms).ranges
+            if (text.length <= length) return Snippet(text, ranges)
+
+            var start = ((ranges.firstOrNull()?.first ?: 0) - length / 4).coerceAtLeast(0)
+            if (start > 0) {
+                val space = text.indexOf(' ', start)
+                if (space in start until (ranges.firstOrNull()?.first ?: start)) start = space + 1
+            }
+            var end = (start + length).coerceAtMost(text.length)
+            if (end < text.length) {
+                val space = text.lastIndexOf(' ', end)
+                if (space > start) end = space
+            }
+
+            val prefix = if (start > 0) ELLIPSIS else ""
+            val suffix = if (end < text.length) ELLIPSIS else ""
+            val shift = prefix.length - start
+            val visible = ranges
+                .filter { it.first >= start && it.last < end }
+                .map { (it.first + shift)..(it.last + shift) }
+            return Snippet(prefix + text.substring(start, end) + suffix, visible)
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.alkhufash.music.data.index
+
+import com.alkhufash.music.domain.model.Song
+
+/**
+ * Immutable snapshot of the library with O(1) id lookups and per-album and
+ * per-artist track lists kept pre-sorted. A scan delta produces a new snapshot
+ * via [applyDelta], which only regroups the albums and artists it touches.
+ * Term search goes through a [SearchIndex] that is updated the same way.
+ *
+ * [isComplete] is false while only the first page of the catalog is loaded;
+ * callers fall back to SQL until it flips.
+ *
+ * Songs are held either as objects or, for very large libraries, in a
+ * [LibrarySnapshot] whose list view builds each Song when it is read.
+ */
+class SongIndex private constructor(
+    val songs: List<Song>,
+    val isComplete: Boolean,
+    private val rowById: LongIntMap,
+    private val byAlbum: LongObjectMap<LongArray>,
+    private val byArtist: LongObjectMap<LongArray>,
+    private val searchIndex: SearchIndex
+) {
+    val size: Int
+        get() = songs.size
+
+    fun isEmpty(): Boolean = songs.isEmpty()
+
+    operator fun get(id: Long): Song? {
+        val row = rowById[id]
+        return if (row < 0) null else songs[row]
+    }
+
+    operator fun contains(id: Long): Boolean = rowById.containsKey(id)
+
+    /** Resolves ids in order, skipping any that are no longer in the library. */
+    fun resolve(ids: List<Long>): List<Song> {
+        val result = ArrayList<Song>(ids.size)
+        for (id in ids) {
+            get(id)?.let { result.add(it) }
+        }
+        return result
+    }
+
+    /**
+     * Songs matching every term of [query] as a prefix, allowing typos when a
+     * term matches nothing. Exact matches come first, then by typo cost, each
+     * group in library order.
+     */
+    fun search(query: String, limit: Int = Int.MAX_VALUE): List<Song> {
+        val result = ArrayList<Song>()
+        search(query, limit) { song, _ -> result.add(song) }
+        return result
+    }
+
+    /**
+     * Like [search], but hands each hit to [onHit] along with its typo cost.
+     * Past [limit] hits only the best are kept, via a bounded heap rather than
+     * a sort of the whole result.
+     */
+    fun search(query: String, limit: Int, onHit: (song: Song, typoCost: Int) -> Unit) {
+        if (limit <= 0) return
+        val hits = searchIndex.search(query)
+        // Cost in the high half, row in the low half, so one ordering ranks both
+        val keys = LongArray(hits.size)
+        var count = 0
+        for (i in 0 until hits.size) {
+            val row = rowById[hits.ids[i]]
+            if (row >= 0) keys[count++] = (hits.costs[i].toLong() shl 32) or row.toLong()
+        }
+        val ranked = if (count > limit) smallest(keys, count, limit) else keys.copyOf(count).apply { sort() }
+        for (key in ranked) onHit(songs[key.toInt()], (key ushr 32).toInt())
+    }
+
+    /**
+     * Every song matching [query] with its typo cost, in no particular order.
+     * For callers that rank hits by a score of their own, which the cost and
+     * row order of [search] would otherwise cut before they see it.
+     */
+    fun forEachHit(query: String, onHit: (song: Song, typoCost: Int) -> Unit) {
+        val hits = searchIndex.search(query)
+        for (i in 0 until hits.size) {
+            val row = rowById[hits.ids[i]]
+            if (row >= 0) onHit(songs[row], hits.costs[i])
+        }
+    }
+
+    /**
+     * The songs of [ids], in the same order, that match every term of [query]
+     * exactly or by transliteration. Typo matches are dropped.
+     */
+    fun narrow(ids: LongArray, query: String): List<Song> = resolve(searchIndex.narrow(ids, query))
+
+    /** Songs of one album in track order. */
+    fun songsByAlbum(albumId: Long): List<Song> = resolve(byAlbum[albumId])
+
+    /** Songs of one artist ordered by album, then track. */
+    fun songsByArtist(artistId: Long): List<Song> = resolve(byArtist[artistId])
+
+    /** Resolves ids in order, skipping any that are no longer in the library. */
+    fun resolve(ids: LongArray?): List<Song> {
+        if (ids == null) return emptyList()
+        val result = ArrayList<Song>(ids.size)
+        for (id in ids) {
+            get(id)?.let { result.add(it) }
+        }
+        return result
+    }
+
+    fun applyDelta(upserted: List<Song>, deletedIds: LongArray): SongIndex {
+        if (upserted.isEmpty() && deletedIds.isEmpty()) return this
+
+        // Previous versions of every song that is deleted or replaced
+        val removed = LongObjectMap<Song>()
+        for (id in deletedIds) get(id)?.let { removed[id] = it }
+        for (song in upserted) get(song.id)?.let { removed[song.id] = it }
+
+        val removedSongs = ArrayList<Song>(removed.size)
+        removed.forEach { _, song -> removedSongs.add(song) }
+
+        val added = upserted.sortedWith(LIBRARY_ORDER)
+        val merged = if (songs is LibrarySnapshot.SongListView) {
+            mergeColumnar(songs.snapshot, removed, added)
+        } else {
+            merge(removed, added)
+        }
+        val rows = rowsOf(merged)
+
+        return SongIndex(
+            songs = merged,
+            isComplete = isComplete,
+            rowById = rows,
+            byAlbum = regroup(byAlbum, merged, rows, removed, added, { it.albumId }, ALBUM_ORDER),
+            byArtist = regroup(byArtist, merged, rows, removed, added, { it.artistId }, ARTIST_ORDER),
+            searchIndex = searchIndex.applyDelta(removedSongs, added)
+        )
+    }
+
+    private fun merge(removed: LongObjectMap<Song>, added: List<Song>): List<Song> {
+        val merged = ArrayList<Song>(songs.size - removed.size + added.size)
+        var next = 0
+        for (song in songs) {
+            if (removed.containsKey(song.id)) continue
+            while (next < added.size && LIBRARY_ORDER.compare(added[next], song) < 0) {
+                merged.add(added[next++])
+            }
+            merged.add(song)
+        }
+        while (next < added.size) merged.add(added[next++])
+        return merged
+    }
+
+    // Same merge, but kept rows are copied column-wise without becoming Songs
+    private fun mergeColumnar(
+        snapshot: LibrarySnapshot,
+        removed: LongObjectMap<Song>,
+        added: List<Song>
+    ): List<Song> {
+        val builder = snapshot.newBuilder(snapshot.size - removed.size + added.size)
+        var next = 0
+        for (row in 0 until snapshot.size) {
+            val id = snapshot.id(row)
+            if (removed.containsKey(id)) continue
+            val title = snapshot.title(row)
+            while (next < added.size && added[next].let { it.title < title || (it.title == title && it.id < id) }) {
+                builder.add(added[next++])
+            }
+            builder.addRow(row)
+        }
+        while (next < added.size) builder.add(added[next++])
+        return builder.build().asList()
+    }
+
+    companion object {
+        private val LIBRARY_ORDER = compareBy<Song>({ it.title }, { it.id })
+        // MediaStore TRACK folds the disc number in as disc * 1000 + track
+        private val ALBUM_ORDER = compareBy<Song>({ it.trackNumber }, { it.title })
+        private val ARTIST_ORDER = compareBy<Song>({ it.album }, { it.trackNumber }, { it.title })
+
+        val EMPTY = SongIndex(
+            songs = emptyList(),
+            isComplete = false,
+            rowById = LongIntMap(0),
+            byAlbum = LongObjectMap(0),
+            byArtist = LongObjectMap(0),
+            searchIndex = SearchIndex.EMPTY
+        )
+
+        /**
+         * @param songs the catalog in title order
+         * @param columnar keep the songs in a [LibrarySnapshot] instead of as
+         * objects; worth it only for very large libraries
+         */
+        fun build(songs: List<Song>, isComplete: Boolean = true, columnar: Boolean = false): SongIndex {
+            // Grouping reads the song objects once, before they are dropped
+            val byAlbum = group(songs, { it.albumId }, ALBUM_ORDER)
+            val byArtist = group(songs, { it.artistId }, ARTIST_ORDER)
+            val list = if (columnar) LibrarySnapshot.of(songs).asList() else songs
+            return SongIndex(
+                songs = list,
+                isComplete = isComplete,
+                rowById = rowsOf(songs),
+                byAlbum = byAlbum,
+                byArtist = byArtist,
+                searchIndex = SearchIndex.build(songs)
+            )
+        }
+
+        /** The [k] smallest of the first [count] [keys], ascending, in O(count log k). */
+        private fun smallest(keys: LongArray, count: Int, k: Int): LongArray {
+            // Max-heap of the best k so far; its root is the one to beat
+            val heap = keys.copyOf(k)
+            for (i in k / 2 - 1 downTo 0) siftDown(heap, i, k)
+            for (i in k until count) {
+                if (keys[i] < heap[0]) {
+                    heap[0] = keys[i]
+                    siftDown(heap, 0, k)
+                }
+            }
+            heap.sort()
+            return heap
+        }
+
+        private fun siftDown(heap: LongArray, start: Int, size: Int) {
+            var i = start
+            while (true) {
+                val left = 2 * i + 1
+                if (left >= size) return
+                val right = left + 1
+                val larger = if (right < size && heap[right] > heap[left]) right else left
+                if (heap[i] >= heap[larger]) return
+                val swap = heap[i]
+                heap[i] = heap[larger]
+                heap[larger] = swap
+                i = larger
+            }
+        }
+
+        private fun rowsOf(songs: List<Song>): LongIntMap {
+            val rows = LongIntMap(songs.size)
+            if (songs is LibrarySnapshot.SongListView) {
+                val snapshot = songs.snapshot
+                for (row in 0 until snapshot.size) rows[snapshot.id(row)] = row
+            } else {
+                songs.forEachIndexed { row, song -> rows[song.id] = row }
+            }
+            return rows
+        }
+
+        private fun group(
+            songs: List<Song>,
+            keyOf: (Song) -> Long,
+            order: Comparator<Song>
+        ): LongObjectMap<LongArray> {
+            val buckets = bucket(songs, keyOf)
+            val groups = LongObjectMap<LongArray>(buckets.size)
+            buckets.forEach { key, members -> groups[key] = sortedIds(members, order) }
+            return groups
+        }
+
+        private fun regroup(
+            groups: LongObjectMap<LongArray>,
+            songs: List<Song>,
+            rows: LongIntMap,
+            removed: LongObjectMap<Song>,
+            added: List<Song>,
+            keyOf: (Song) -> Long,
+            order: Comparator<Song>
+        ): LongObjectMap<LongArray> {
+            val addedByKey = bucket(added, keyOf)
+            val affected = LongObjectMap<Boolean>()
+            removed.forEach { _, song -> affected[keyOf(song)] = true }
+            addedByKey.forEach { key, _ -> affected[key] = true }
+
+            val result = groups.copy()
+            affected.forEach { key, _ ->
+                val members = ArrayList<Song>()
+                groups[key]?.forEach { id ->
+                    if (removed.containsKey(id)) return@forEach
+                    val row = rows[id]
+                    if (row >= 0) members.add(songs[row])
+                }
+                addedByKey[key]?.let { members.addAll(it) }
+                if (members.isEmpty()) result.remove(key) else result[key] = sortedIds(members, order)
+            }
+            return result
+        }
+
+        private fun bucket(songs: List<Song>, keyOf: (Song) -> Long): LongObjectMap<ArrayList<Song>> {
+            val buckets = LongObjectMap<ArrayList<Song>>()
+            for (song in songs) {
+                val key = keyOf(song)
+                val bucket = buckets[key] ?: ArrayList<Song>().also { buckets[key] = it }
+                bucket.add(song)
+            }
+            return buckets
+        }
+
+        private fun sortedIds(members: MutableList<Song>, order: Comparator<Song>): LongArray {
+            members.sortWith(order)
+            return LongArray(members.size) { members[it].id }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Deduplicates repeated metadata strings (artist and album names) while a
+ * library is decoded. [intern] with a char buffer looks the value up without
+ * allocating, so a name repeated across thousands of rows becomes one String.
+ * Not thread-safe; use one pool per decode pass.
+ */
+class StringPool(expectedSize: Int = 256) {
+
+    private var table: Array<String?>
+    private var mask: Int
+    private var size = 0
+
+    init {
+        var capacity = 16
+        while (capacity * 3 < expectedSize * 4) capacity = capacity shl 1
+        table = arrayOfNulls(capacity)
+        mask = capacity - 1
+    }
+
+    fun intern(value: String): String {
+        var i = spread(value.hashCode()) and mask
+        while (true) {
+            val existing = table[i] ?: return insert(i, value)
+            if (existing == value) return existing
+            i = (i + 1) and mask
+        }
+    }
+
+    /** Returns the pooled string equal to `chars[0 until length]`, creating it only on a miss. */
+    fun intern(chars: CharArray, length: Int): String {
+        // Same polynomial as String.hashCode so both overloads share slots
+        var h = 0
+        for (k in 0 until length) h = 31 * h + chars[k].code
+        var i = spread(h) and mask
+        while (true) {
+            val existing = table[i] ?: return insert(i, String(chars, 0, length))
+            if (existing.length == length && matches(existing, chars)) return existing
+            i = (i + 1) and mask
+        }
+    }
+
+    private fun matches(value: String, chars: CharArray): Boolean {
+        for (k in value.indices) {
+            if (value[k] != chars[k]) return false
+        }
+        return true
+    }
+
+    private fun insert(slot: Int, value: String): String {
+        table[slot] = value
+        if (++size * 4 > table.size * 3) grow()
+        return value
+    }
+
+    private fun grow() {
+        val old = table
+        table = arrayOfNulls(old.size * 2)
+        mask = table.size - 1
+        for (value in old) {
+            if (value == null) continue
+            var i = spread(value.hashCode()) and mask
+            while (table[i] != null) i = (i + 1) and mask
+            table[i] = value
+        }
+    }
+
+    private fun spread(h: Int): Int = h xor (h ushr 16)
+}
@@ -0,0 +1,114 @@
+package com.alkhufash.music.data.index
+
+/**
+ * Trigram index over a term dictionary for typo-tolerant lookups. The trigrams
+ * of a misspelled term pick the candidate terms, and only candidates sharing
+ * enough of them get the bounded edit-distance check, so a lookup never
+ * compares against the whole dictionary.
+ */
+class TermTrigrams(terms: Collection<String>) {
+
+    private val terms: Array<String> = terms.toTypedArray()
+    private val postings = HashMap<String, IntArray>()
+
+    init {
+        val lists = HashMap<String, IntArrayList>()
+        val seen = HashSet<String>()
+        for ((ordinal, term) in this.terms.withIndex()) {
+            seen.clear()
+            for (gram in gramsOf(term)) {
+                if (seen.add(gram)) lists.getOrPut(gram) { IntArrayList() }.add(ordinal)
+            }
+        }
+        lists.forEach { (gram, list) -> postings[gram] = list.toArray() }
+    }
+
+    /**
+     * Calls [onMatch] for every term within [maxDistance] edits of [query], or
+     * of a prefix of it since the user may still be typing, with that distance.
+     */
+    fun match(query: String, maxDistance: Int, onMatch: (term: String, distance: Int) -> Unit) {
+        val grams = gramsOf(query).distinct()
+        if (grams.isEmpty()) return
+        // One edit destroys at most three trigrams
+        val required = maxOf(1, grams.size - 3 * maxDistance)
+
+        var total = 0
+        for (gram in grams) total += postings[gram]?.size ?: 0
+        val candidates = IntArray(total)
+        var offset = 0
+        for (gram in grams) {
+            val ordinals = postings[gram] ?: continue
+            ordinals.copyInto(candidates, offset)
+            offset += ordinals.size
+        }
+        candidates.sort()
+
+        var i = 0
+        while (i < candidates.size) {
+            val ordinal = candidates[i]
+            var shared = 0
+            while (i < candidates.size && candidates[i] == ordinal) {
+                shared++
+                i++
+            }
+            if (shared < required) continue
+            val term = terms[ordinal]
+            val distance = prefixDistance(query, term, maxDistance)
+            if (distance <= maxDistance) onMatch(term, distance)
+        }
+    }
+
+    companion object {
+        private const val PAD = '\u0001'
+
+        /** Edits allowed for a query term of this length; short terms get none. */
+        fun maxDistanceFor(length: Int): Int = when {
+            length < 3 -> 0
+            length < 6 -> 1
+            else -> 2
+        }
+
+        // Padded at the start only, so the grams of a prefix are grams of the term
+        private fun gramsOf(term: String): List<String> {
+            val padded = "$PAD$PAD$term"
+            return List(term.length) { padded.substring(it, it + 3) }
+        }
+
+        /**
+         * Levenshtein distance from [query] to the closest prefix of [term], or
+         * [limit] + 1 once it is certain to exceed [limit].
+         */
+        private fun prefixDistance(query: String, term: String, limit: Int): Int {
+            val width = minOf(term.length, query.length + limit)
+            var previous = IntArray(width + 1) { it }
+            var current = IntArray(width + 1)
+            for (i in 1..query.length) {
+                current[0] = i
+                var rowMin = i
+                for (j in 1..width) {
+                    val substitution = previous[j - 1] + if (query[i - 1] == term[j - 1]) 0 else 1
+                    current[j] = minOf(substitution, previous[j] + 1, current[j - 1] + 1)
+                    if (current[j] < rowMin) rowMin = current[j]
+                }
+                if (rowMin > limit) return limit + 1
+                val swap = previous
+                previous = current
+                current = swap
+            }
+            return previous.min()
+        }
+    }
+
+    private class IntArrayList {
+        private var values = IntArray(4)
+        private var size = 0
+
+        fun add(value: Int) {
+            if (size == values.size) values = values.copyOf(size * 2)
+            values[size++] = value
+        }
+
+        fun toArray(): IntArray = values.copyOf(size)
+    }
+}
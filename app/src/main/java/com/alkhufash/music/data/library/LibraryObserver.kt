@@ -0,0 +1,44 @@
+package com.alkhufash.music.data.library
+
+import android.content.Context
+import android.database.ContentObserver
+import android.net.Uri
+import android.provider.MediaStore
+import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.debounce
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Watches MediaStore's audio table. A download or a batch delete fires many
+ * notifications in quick succession, so they are coalesced and emitted once
+ * things have been quiet for [QUIET_PERIOD_MS].
+ */
+@Singleton
+class LibraryObserver @Inject constructor(
+    @ApplicationContext private val context: Context
+) {
+    companion object {
+        private const val QUIET_PERIOD_MS = 1_000L
+    }
+
+    @OptIn(FlowPreview::class)
+    fun changes(): Flow<Unit> = callbackFlow {
+        val observer = object : ContentObserver(null) {
+            override fun onChange(selfChange: Boolean, uri: Uri?) {
+                trySend(Unit)
+            }
+        }
+        context.contentResolver.registerContentObserver(
+            MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+            true,
+            observer
+        )
+        awaitClose { context.contentResolver.unregisterContentObserver(observer) }
+    }.conflate().debounce(QUIET_PERIOD_MS)
+}
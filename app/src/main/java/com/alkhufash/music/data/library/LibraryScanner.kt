@@ -0,0 +1,137 @@
+package com.alkhufash.music.data.library
+
+import android.util.Log
+import com.alkhufash.music.data.db.LibraryStateEntity
+import com.alkhufash.music.data.db.MusicDao
+import com.alkhufash.music.data.db.toEntity
+import com.alkhufash.music.data.db.toSong
+import com.alkhufash.music.data.index.StringPool
+import com.alkhufash.music.data.model.MediaStoreHelper
+import com.alkhufash.music.domain.model.Song
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Keeps the persisted song table in step with MediaStore.
+ *
+ * A full scan only happens on first run or after MediaStore rebuilds its database.
+ * Otherwise the scanner reads the rows changed since the stored generation
+ * (DATE_MODIFIED before Android 11) plus an id-only projection to find deletions,
+ * and applies the result as a diff in one transaction.
+ */
+@Singleton
+class LibraryScanner @Inject constructor(
+    private val mediaStoreHelper: MediaStoreHelper,
+    private val musicDao: MusicDao
+) {
+    companion object {
+        private const val TAG = "LibraryScanner"
+    }
+
+    private val mutex = Mutex()
+
+    suspend fun sync(): LibraryDelta = mutex.withLock {
+        withContext(Dispatchers.IO) {
+            val state = musicDao.getLibraryState()
+            val version = mediaStoreHelper.getMediaStoreVersion()
+            // Read before querying rows so changes made mid-scan are picked up next time
+            val generation = mediaStoreHelper.getMediaStoreGeneration()
+
+            when {
+                state == null || state.mediaStoreVersion != version -> fullScan(version, generation)
+                generation >= 0 && generation == state.generation -> LibraryDelta.EMPTY
+                else -> deltaScan(state, version, generation)
+            }
+        }
+    }
+
+    private suspend fun fullScan(version: String, generation: Long): LibraryDelta {
+        val songs = mediaStoreHelper.getAllSongs()
+        val entities = songs.map { it.toEntity() }
+        musicDao.applyLibraryDelta(
+            upserts = entities,
+            deletedIds = emptyList(),
+            state = LibraryStateEntity(
+                mediaStoreVersion = version,
+                generation = generation,
+                maxDateModified = songs.maxOfOrNull { it.dateModified } ?: 0L
+            ),
+            replaceAll = true
+        )
+        Log.d(TAG, "full scan: ${songs.size} songs")
+        return LibraryDelta(
+            upserted = StringPool().let { pool -> entities.map { it.toSong(pool) } },
+            deletedIds = LongArray(0),
+            isFullScan = true
+        )
+    }
+
+    private suspend fun deltaScan(
+        state: LibraryStateEntity,
+        version: String,
+        generation: Long
+    ): LibraryDelta {
+        val changed = mediaStoreHelper.getSongsChangedSince(state.generation, state.maxDateModified)
+        val deleted = missingIds(
+            stored = musicDao.getAllSongIds(),
+            current = mediaStoreHelper.getAllSongIds()
+        )
+        if (changed.isEmpty() && deleted.isEmpty() && generation == state.generation) {
+            return LibraryDelta.EMPTY
+        }
+
+        val entities = changed.map { it.toEntity() }
+        musicDao.applyLibraryDelta(
+            upserts = entities,
+            deletedIds = deleted.toList(),
+            state = LibraryStateEntity(
+                mediaStoreVersion = version,
+                generation = generation,
+                maxDateModified = maxOf(
+                    state.maxDateModified,
+                    changed.maxOfOrNull { it.dateModified } ?: 0L
+                )
+            ),
+            replaceAll = false
+        )
+        Log.d(TAG, "delta scan: ${changed.size} changed, ${deleted.size} deleted")
+        return LibraryDelta(
+            upserted = StringPool().let { pool -> entities.map { it.toSong(pool) } },
+            deletedIds = deleted,
+            isFullScan = false
+        )
+    }
+
+    /** Ids present in [stored] but not in [current]; both must be sorted ascending. */
+    private fun missingIds(stored: List<Long>, current: LongArray): LongArray {
+        val missing = LongArray(stored.size)
+        var count = 0
+        var j = 0
+        for (id in stored) {
+            while (j < current.size && current[j] < id) j++
+            if (j >= current.size || current[j] != id) missing[count++] = id
+        }
+        return missing.copyOf(count)
+    }
+}
+
+/**
+ * Rows that changed in one scan, in catalog form (as they read back from the
+ * songs table). A full scan replaces the whole library with [upserted].
+ */
+class LibraryDelta(
+    val upserted: List<Song>,
+    val deletedIds: LongArray,
+    val isFullScan: Boolean
+) {
+    val isEmpty: Boolean
+        get() = !isFullScan && upserted.isEmpty() && deletedIds.isEmpty()
+
+    companion object {
+        val EMPTY = LibraryDelta(emptyList(), LongArray(0), isFullScan = false)
+    }
+}
@@ -2,11 +2,13 @@ package com.alkhufash.music.data.model
 
 import android.content.ContentUris
 import android.content.Context
+import android.database.CharArrayBuffer
+import android.database.Cursor
 import android.net.Uri
+import android.os.Build
 import android.provider.MediaStore
-import com.alkhufash.music.domain.model.Album
-import com.alkhufash.music.domain.model.Artist
-import com.alkhufash.music.domain.model.Folder
+import androidx.annotation.VisibleForTesting
+import com.alkhufash.music.data.index.StringPool
 import com.alkhufash.music.domain.model.Song
 import dagger.hilt.android.qualifiers.ApplicationContext
 import kotlinx.coroutines.Dispatchers
@@ -19,148 +21,155 @@ class MediaStoreHelper @Inject constructor(
     @ApplicationContext private val context: Context
 ) {
 
-    suspend fun getAllSongs(): List<Song> = withContext(Dispatchers.IO) {
-        val songs = mutableListOf<Song>()
-        val collection = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
+    companion object {
+        private const val MUSIC_SELECTION =
+            "${MediaStore.Audio.Media.IS_MUSIC} != 0 AND ${MediaStore.Audio.Media.DURATION} > 10000"
 
-        val projection = arrayOf(
+        @VisibleForTesting
+        internal val SONG_PROJECTION = arrayOf(
             MediaStore.Audio.Media._ID,
             MediaStore.Audio.Media.TITLE,
             MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.ARTIST_ID,
             MediaStore.Audio.Media.ALBUM,
             MediaStore.Audio.Media.ALBUM_ID,
             MediaStore.Audio.Media.DURATION,
             MediaStore.Audio.Media.DATA,
             MediaStore.Audio.Media.SIZE,
             MediaStore.Audio.Media.DATE_ADDED,
+            MediaStore.Audio.Media.DATE_MODIFIED,
             MediaStore.Audio.Media.TRACK,
             MediaStore.Audio.Media.YEAR,
             MediaStore.Audio.Media.IS_MUSIC
         )
 
-        val selection = "${MediaStore.Audio.Media.IS_MUSIC} != 0 AND ${MediaStore.Audio.Media.DURATION} > 10000"
-        val sortOrder = "${MediaStore.Audio.Media.TITLE} ASC"
-
-        context.contentResolver.query(
-            collection,
-            projection,
-            selection,
-            null,
-            sortOrder
-        )?.use { cursor ->
+        /** Reads every remaining row of a cursor over [SONG_PROJECTION]. */
+        @VisibleForTesting
+        internal fun decodeSongs(cursor: Cursor): List<Song> {
+            val songs = ArrayList<Song>(maxOf(cursor.count, 0))
             val idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID)
             val titleCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE)
             val artistCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST)
+            val artistIdCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST_ID)
             val albumCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM)
             val albumIdCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID)
             val durationCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DURATION)
             val dataCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA)
             val sizeCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.SIZE)
             val dateCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED)
+            val modifiedCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_MODIFIED)
             val trackCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TRACK)
             val yearCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.YEAR)
 
+            // Artist and album repeat across rows: copy them into a reusable buffer
+            // and only allocate a String the first time each value is seen
+            val pool = StringPool()
+            val buffer = CharArrayBuffer(128)
+            fun pooledString(column: Int, fallback: String): String {
+                if (cursor.isNull(column)) return fallback
+                cursor.copyStringToBuffer(column, buffer)
+                return pool.intern(buffer.data, buffer.sizeCopied)
+            }
+
             while (cursor.moveToNext()) {
-                val id = cursor.getLong(idCol)
-                val contentUri = ContentUris.withAppendedId(
-                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id
-                )
                 songs.add(
                     Song(
-                        id = id,
+                        id = cursor.getLong(idCol),
                         title = cursor.getString(titleCol) ?: "Unknown",
-                        artist = cursor.getString(artistCol) ?: "Unknown Artist",
-                        album = cursor.getString(albumCol) ?: "Unknown Album",
+                        artist = pooledString(artistCol, "Unknown Artist"),
+                        artistId = cursor.getLong(artistIdCol),
+                        album = pooledString(albumCol, "Unknown Album"),
                         albumId = cursor.getLong(albumIdCol),
                         duration = cursor.getLong(durationCol),
-                        uri = contentUri,
                         path = cursor.getString(dataCol) ?: "",
                         size = cursor.getLong(sizeCol),
                         dateAdded = cursor.getLong(dateCol),
+                        dateModified = cursor.getLong(modifiedCol),
                         trackNumber = cursor.getInt(trackCol),
                         year = cursor.getInt(yearCol)
                     )
                 )
             }
+            return songs
         }
-        songs
     }
 
-    suspend fun getAllAlbums(): List<Album> = withContext(Dispatchers.IO) {
-        val albums = mutableListOf<Album>()
-        val collection = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI
+    suspend fun getAllSongs(): List<Song> = withContext(Dispatchers.IO) {
+        querySongs(MUSIC_SELECTION, null)
+    }
 
-        val projection = arrayOf(
-            MediaStore.Audio.Albums._ID,
-            MediaStore.Audio.Albums.ALBUM,
-            MediaStore.Audio.Albums.ARTIST,
-            MediaStore.Audio.Albums.NUMBER_OF_SONGS,
-            MediaStore.Audio.Albums.LAST_YEAR
-        )
+    /**
+     * Returns only the rows added or modified after the given watermark. On Android 11+
+     * the MediaStore generation is exact; older releases fall back to DATE_MODIFIED,
+     * which has one-second resolution, so the boundary second is re-read.
+     */
+    suspend fun getSongsChangedSince(
+        generation: Long,
+        dateModified: Long
+    ): List<Song> = withContext(Dispatchers.IO) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && generation >= 0) {
+            querySongs(
+                "$MUSIC_SELECTION AND ${MediaStore.MediaColumns.GENERATION_MODIFIED} > ?",
+                arrayOf(generation.toString())
+            )
+        } else {
+            querySongs(
+                "$MUSIC_SELECTION AND ${MediaStore.Audio.Media.DATE_MODIFIED} >= ?",
+                arrayOf(dateModified.toString())
+            )
+        }
+    }
 
+    /**
+     * Id-only projection of the current music rows, sorted ascending. Used to detect
+     * deletions without decoding any metadata.
+     */
+    suspend fun getAllSongIds(): LongArray = withContext(Dispatchers.IO) {
         context.contentResolver.query(
-            collection,
-            projection,
-            null,
+            MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+            arrayOf(MediaStore.Audio.Media._ID),
+            MUSIC_SELECTION,
             null,
-            "${MediaStore.Audio.Albums.ALBUM} ASC"
+            "${MediaStore.Audio.Media._ID} ASC"
         )?.use { cursor ->
-            val idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums._ID)
-            val albumCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums.ALBUM)
-            val artistCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums.ARTIST)
-            val songCountCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums.NUMBER_OF_SONGS)
-            val yearCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Albums.LAST_YEAR)
-
-            while (cursor.moveToNext()) {
-                albums.add(
-                    Album(
-                        id = cursor.getLong(idCol),
-                        name = cursor.getString(albumCol) ?: "Unknown Album",
-                        artist = cursor.getString(artistCol) ?: "Unknown Artist",
-                        songCount = cursor.getInt(songCountCol),
-                        year = cursor.getInt(yearCol)
-                    )
-                )
+            val ids = LongArray(cursor.count)
+            var i = 0
+            while (cursor.moveToNext() && i < ids.size) {
+                ids[i++] = cursor.getLong(0)
             }
+            if (i == ids.size) ids else ids.copyOf(i)
+        } ?: LongArray(0)
+    }
+
+    /** Changes whenever MediaStore rebuilds its database; generations are only comparable within a version. */
+    fun getMediaStoreVersion(): String {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            MediaStore.getVersion(context)
+        } else {
+            ""
         }
-        albums
     }
 
-    suspend fun getAllArtists(): List<Artist> = withContext(Dispatchers.IO) {
-        val artists = mutableListOf<Artist>()
-        val collection = MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI
+    /** Current generation of the external volume, or -1 where the API is unavailable. */
+    fun getMediaStoreGeneration(): Long {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            MediaStore.getGeneration(context, MediaStore.VOLUME_EXTERNAL)
+        } else {
+            -1L
+        }
+    }
 
-        val projection = arrayOf(
-            MediaStore.Audio.Artists._ID,
-            MediaStore.Audio.Artists.ARTIST,
-            MediaStore.Audio.Artists.NUMBER_OF_ALBUMS,
-            MediaStore.Audio.Artists.NUMBER_OF_TRACKS
-        )
+    private fun querySongs(selection: String, selectionArgs: Array<String>?): List<Song> {
+        val collection = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI
+        val sortOrder = "${MediaStore.Audio.Media.TITLE} ASC"
 
-        context.contentResolver.query(
+        return context.contentResolver.query(
             collection,
-            projection,
-            null,
-            null,
-            "${MediaStore.Audio.Artists.ARTIST} ASC"
-        )?.use { cursor ->
-            val idCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Artists._ID)
-            val artistCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Artists.ARTIST)
-            val albumCountCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Artists.NUMBER_OF_ALBUMS)
-            val songCountCol = cursor.getColumnIndexOrThrow(MediaStore.Audio.Artists.NUMBER_OF_TRACKS)
-
-            while (cursor.moveToNext()) {
-                artists.add(
-                    Artist(
-                        id = cursor.getLong(idCol),
-                        name = cursor.getString(artistCol) ?: "Unknown Artist",
-                        albumCount = cursor.getInt(albumCountCol),
-                        songCount = cursor.getInt(songCountCol)
-                    )
-                )
-            }
-        }
-        artists
+            SONG_PROJECTION,
+            selection,
+            selectionArgs,
+            sortOrder
+        )?.use { decodeSongs(it) } ?: emptyList()
     }
 
     fun getAlbumArtUri(albumId: Long): Uri {
@@ -169,16 +178,4 @@ class MediaStoreHelper @Inject constructor(
             albumId
         )
     }
-
-    suspend fun getFolders(songs: List<Song>): List<Folder> = withContext(Dispatchers.IO) {
-        songs.groupBy { song ->
-            song.path.substringBeforeLast("/")
-        }.map { (path, folderSongs) ->
-            Folder(
-                path = path,
-                name = path.substringAfterLast("/"),
-                songCount = folderSongs.size
-            )
-        }.sortedBy { it.name }
-    }
 }
@@ -1,139 +1,494 @@
 package com.alkhufash.music.data.repository
 
+import android.util.Log
+import androidx.annotation.VisibleForTesting
 import com.alkhufash.music.data.db.FavoriteEntity
+import com.alkhufash.music.data.db.FtsQuery
 import com.alkhufash.music.data.db.MusicDao
 import com.alkhufash.music.data.db.PlaylistEntity
-import com.alkhufash.music.data.db.PlaylistSongEntity
-import com.alkhufash.music.data.model.MediaStoreHelper
+import com.alkhufash.music.data.db.toAlbum
+import com.alkhufash.music.data.db.toArtist
+import com.alkhufash.music.data.db.toFolder
+import com.alkhufash.music.data.db.toPlaylist
+import com.alkhufash.music.data.db.toSong
+import com.alkhufash.music.data.index.LabelMatcher
+import com.alkhufash.music.data.index.LongHashSet
+import com.alkhufash.music.data.index.SearchCache
+import com.alkhufash.music.data.index.SearchIndex
+import com.alkhufash.music.data.index.SearchTokenizer
+import com.alkhufash.music.data.index.SongIndex
+import com.alkhufash.music.data.index.StringPool
+import com.alkhufash.music.data.library.LibraryObserver
+import com.alkhufash.music.data.library.LibraryScanner
 import com.alkhufash.music.domain.model.Album
 import com.alkhufash.music.domain.model.Artist
+import com.alkhufash.music.domain.model.CacheStats
+import com.alkhufash.music.domain.model.FavoriteChange
+import com.alkhufash.music.domain.model.FavoriteIds
 import com.alkhufash.music.domain.model.Folder
 import com.alkhufash.music.domain.model.Playlist
+import com.alkhufash.music.domain.model.SearchHit
 import com.alkhufash.music.domain.model.Song
+import com.alkhufash.music.domain.model.SongCatalog
 import com.alkhufash.music.domain.repository.MusicRepository
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.emitAll
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.util.PriorityQueue
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 import javax.inject.Singleton
 
 @Singleton
 class MusicRepositoryImpl @Inject constructor(
-    private val mediaStoreHelper: MediaStoreHelper,
+    private val libraryScanner: LibraryScanner,
+    private val libraryObserver: LibraryObserver,
     private val musicDao: MusicDao
 ) : MusicRepository {
 
-    private var cachedSongs: List<Song> = emptyList()
+    // Loaded from the songs table once, then kept current by applying scan deltas
+    private val songIndex = MutableStateFlow(SongIndex.EMPTY)
+    private val catalogMutex = Mutex()
+    // Stamps each catalog getAllSongs emits; shared by all collectors
+    private val catalogGeneration = AtomicLong()
 
-    override fun getAllSongs(): Flow<List<Song>> = flow {
-        val songs = mediaStoreHelper.getAllSongs()
-        cachedSongs = songs
-        val favorites = musicDao.getAllFavorites()
-        favorites.collect { favList ->
-            val favIds = favList.map { it.songId }.toSet()
-            emit(songs.map { it.copy(isFavorite = it.id in favIds) })
+    // Bumped whenever the library changes. Playlists have their own
+    // generation so editing one leaves cached song results alone.
+    private val searchGeneration = AtomicLong()
+    private val playlistGeneration = AtomicLong()
+    @Volatile private var libraryNamesCache: LibraryNames? = null
+    @Volatile private var playlistNamesCache: PlaylistNames? = null
+    private val searchCache = SearchCache(SEARCH_CACHE_SIZE)
+
+    // Loaded on first use, then kept in step by toggleFavorite; each change
+    // publishes a copy so a set handed out is never modified
+    private val favoriteIds = MutableStateFlow<FavoriteSet?>(null)
+    private val favoriteChangeEvents = MutableSharedFlow<FavoriteChange>(extraBufferCapacity = 16)
+    private val favoritesMutex = Mutex()
+
+    companion object {
+        private const val TAG = "MusicRepository"
+        // Roughly two screens of SongItem rows
+        private const val FIRST_PAGE_SIZE = 40
+        // Above this the index keeps songs columnar rather than as objects
+        private const val COLUMNAR_THRESHOLD = 20_000
+        // Added to a hit's score by kind; entities outrank a song with an equally
+        // good match since picking one is a shortcut to many songs
+        private const val SONG_BOOST = 0
+        private const val FOLDER_BOOST = 2
+        private const val ALBUM_BOOST = 4
+        private const val PLAYLIST_BOOST = 4
+        private const val ARTIST_BOOST = 6
+        // Enough for the prefixes of a few recent queries
+        private const val SEARCH_CACHE_SIZE = 64
+        // A song played this often and not for this long counts as forgotten
+        private const val FORGOTTEN_MIN_PLAYS = 3
+        private const val FORGOTTEN_AFTER_MS = 30L * 24 * 60 * 60 * 1000
+    }
+
+    // Serves the persisted catalog immediately, then scans and folds the delta
+    // in. An empty catalog is held back until the scan finishes so first launch
+    // doesn't flash "no songs". While collected, MediaStore changes trigger
+    // further delta scans; a scan that finds nothing emits nothing. Each index
+    // is emitted once, under a new generation, so consumers compare catalogs
+    // without walking them.
+    override fun getAllSongs(): Flow<SongCatalog> = channelFlow {
+        val scanned = MutableStateFlow(false)
+        launch {
+            loadCatalog()
+            refreshLibrary()
+            scanned.value = true
+            libraryObserver.changes().collect {
+                try {
+                    refreshLibrary()
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    Log.w(TAG, "rescan failed", e)
+                }
+            }
+        }
+        // Favorites are not marked here: a toggle would re-emit the whole catalog.
+        // Rows look them up in observeFavoriteIds instead.
+        combine(songIndex, scanned) { index, isScanned ->
+            if (index.isEmpty() && !isScanned) null else index
+        }.filterNotNull()
+            .distinctUntilChanged { old, new -> old === new }
+            .collect { send(SongCatalog(catalogGeneration.incrementAndGet(), it.songs)) }
+    }
+
+    // Publishes a small first page ahead of the rest so the list can draw
+    // before the whole catalog is decoded. Decoding and index building run on
+    // Default: getAllSongs is collected from the main thread. Benchmarks call
+    // it directly to load a seeded database without a MediaStore scan.
+    @VisibleForTesting
+    internal suspend fun loadCatalog() = catalogMutex.withLock {
+        withContext(Dispatchers.Default) { loadCatalogLocked() }
+    }
+
+    private suspend fun loadCatalogLocked() {
+        if (songIndex.value.isComplete) return
+        val pool = StringPool()
+        val firstPage = musicDao.getSongsPage(FIRST_PAGE_SIZE)
+        val songs = ArrayList<Song>(firstPage.size)
+        firstPage.mapTo(songs) { it.toSong(pool) }
+        if (firstPage.size == FIRST_PAGE_SIZE) {
+            songIndex.value = SongIndex.build(songs.toList(), isComplete = false)
+            val last = firstPage.last()
+            musicDao.getSongsAfter(last.title, last.id).mapTo(songs) { it.toSong(pool) }
         }
+        songIndex.value = SongIndex.build(songs, columnar = songs.size >= COLUMNAR_THRESHOLD)
+    }
+
+    private suspend fun refreshLibrary() {
+        val delta = libraryScanner.sync()
+        if (delta.isEmpty) return
+        catalogMutex.withLock {
+            songIndex.value = withContext(Dispatchers.Default) {
+                if (delta.isFullScan) {
+                    val songs = delta.upserted.sortedWith(compareBy({ it.title }, { it.id }))
+                    SongIndex.build(songs, columnar = songs.size >= COLUMNAR_THRESHOLD)
+                } else {
+                    songIndex.value.applyDelta(delta.upserted, delta.deletedIds)
+                }
+            }
+        }
+        invalidateSearch()
+        // Playlist song counts only count songs still in the library
+        invalidatePlaylists()
     }
 
     override suspend fun getSongById(id: Long): Song? {
-        return cachedSongs.find { it.id == id }
+        val index = songIndex.value
+        return if (index.isComplete) index[id] else musicDao.getSongById(id)?.toSong()
     }
 
     override suspend fun searchSongs(query: String): List<Song> {
-        val lowerQuery = query.lowercase()
-        return cachedSongs.filter {
-            it.title.lowercase().contains(lowerQuery) ||
-                    it.artist.lowercase().contains(lowerQuery) ||
-                    it.album.lowercase().contains(lowerQuery)
+        // Generation first: if a delta lands in between, the entry is stale on arrival
+        val generation = searchGeneration.get()
+        val index = songIndex.value
+        if (index.isComplete) {
+            val key = SearchCache.keyOf(query) ?: return emptyList()
+            searchCache.get(key, generation)?.let { return index.resolve(it) }
+            // CPU-bound, with the trigram build on the first typo after a change
+            val songs = withContext(Dispatchers.Default) { index.search(query) }
+            searchCache.put(key, generation, LongArray(songs.size) { songs[it].id })
+            return songs
+        }
+        // Cold start: the persisted FTS table answers before the catalog is in memory
+        val match = FtsQuery.prefix(query) ?: return emptyList()
+        return musicDao.searchSongs(match).map { it.toSong() }
+    }
+
+    override fun getSearchCacheStats(): CacheStats = searchCache.stats()
+
+    @VisibleForTesting
+    internal fun clearSearchCache() = searchCache.clear()
+
+    override suspend fun narrowSearch(results: List<Song>, previousQuery: String, query: String): List<Song> {
+        val generation = searchGeneration.get()
+        // Without the in-memory index there are no postings to narrow against
+        val index = songIndex.value
+        if (!index.isComplete || !SearchIndex.narrows(previousQuery, query)) return emptyList()
+        // A full result already cached is as good; narrowed ones are never
+        // cached, since the cache must only ever hold complete answers
+        val key = SearchCache.keyOf(query) ?: return emptyList()
+        searchCache.get(key, generation)?.let { return index.resolve(it) }
+        return withContext(Dispatchers.Default) {
+            index.narrow(LongArray(results.size) { results[it].id }, query)
         }
     }
 
+    override suspend fun searchAll(query: String, limit: Int): List<SearchHit> =
+        rankHits(query, limit, includeSongs = true)
+
+    override suspend fun searchEntities(query: String, limit: Int): List<SearchHit> =
+        rankHits(query, limit, includeSongs = false)
+
+    private suspend fun rankHits(query: String, limit: Int, includeSongs: Boolean): List<SearchHit> =
+        withContext(Dispatchers.Default) {
+            val terms = SearchTokenizer.tokenize(query)
+            if (terms.isEmpty() || limit <= 0) return@withContext emptyList()
+            val top = PriorityQueue<SearchHit>(limit + 1, compareBy { it.score })
+
+            fun offer(label: String, typoCost: Int, boost: Int, hit: (score: Int, highlights: List<IntRange>) -> SearchHit) {
+                // Skip the label scan for hits that couldn't make the cut anyway
+                if (top.size == limit && LabelMatcher.maxScore(typoCost, boost) <= top.peek()!!.score) return
+                val match = LabelMatcher.match(label, terms)
+                val score = LabelMatcher.score(match, terms.size, typoCost, boost)
+                if (top.size == limit && score <= top.peek()!!.score) return
+                top.add(hit(score, match.ranges))
+                if (top.size > limit) top.poll()
+            }
+
+            // Every song hit is scored: cutting to the best by typo cost first
+            // would drop titles the label score ranks higher
+            val index = songIndex.value
+            if (includeSongs && index.isComplete) {
+                index.forEachHit(query) { song, cost ->
+                    offer(song.title, cost, SONG_BOOST) { score, ranges -> SearchHit.SongHit(song, score, ranges) }
+                }
+            } else if (includeSongs) {
+                searchSongs(query).forEach { song ->
+                    offer(song.title, 0, SONG_BOOST) { score, ranges -> SearchHit.SongHit(song, score, ranges) }
+                }
+            }
+
+            // Each phase is CPU-bound with no suspension of its own, so a newer
+            // query cancels this one only at these checks
+            ensureActive()
+            val library = libraryNames()
+            library.albumNames.forEachHit(query) { position, cost ->
+                val album = library.albums[position]
+                offer(album.name, cost, ALBUM_BOOST) { score, ranges -> SearchHit.AlbumHit(album, score, ranges) }
+            }
+            library.artistNames.forEachHit(query) { position, cost ->
+                val artist = library.artists[position]
+                offer(artist.name, cost, ARTIST_BOOST) { score, ranges -> SearchHit.ArtistHit(artist, score, ranges) }
+            }
+            library.folderNames.forEachHit(query) { position, cost ->
+                val folder = library.folders[position]
+                offer(folder.name, cost, FOLDER_BOOST) { score, ranges -> SearchHit.FolderHit(folder, score, ranges) }
+            }
+            ensureActive()
+            val playlists = playlistNames()
+            playlists.names.forEachHit(query) { position, cost ->
+                val playlist = playlists.playlists[position]
+                offer(playlist.name, cost, PLAYLIST_BOOST) { score, ranges -> SearchHit.PlaylistHit(playlist, score, ranges) }
+            }
+
+            top.sortedByDescending { it.score }
+        }
+
+    // Name indexes for albums, artists and folders, rebuilt on the first search
+    // after the library changes
+    private suspend fun libraryNames(): LibraryNames {
+        val generation = searchGeneration.get()
+        libraryNamesCache?.takeIf { it.generation == generation }?.let { return it }
+        val albums = musicDao.getAlbums().map { it.toAlbum() }
+        val artists = musicDao.getArtists().map { it.toArtist() }
+        val folders = musicDao.getFolders().map { it.toFolder() }
+        return LibraryNames(
+            generation = generation,
+            albums = albums,
+            albumNames = SearchIndex.ofNames(albums.map { it.name }),
+            artists = artists,
+            artistNames = SearchIndex.ofNames(artists.map { it.name }),
+            folders = folders,
+            folderNames = SearchIndex.ofNames(folders.map { it.name })
+        ).also { libraryNamesCache = it }
+    }
+
+    // Playlist hits carry song counts, so any playlist edit rebuilds this one
+    private suspend fun playlistNames(): PlaylistNames {
+        val generation = playlistGeneration.get()
+        playlistNamesCache?.takeIf { it.generation == generation }?.let { return it }
+        val playlists = getAllPlaylists().first()
+        return PlaylistNames(
+            generation = generation,
+            playlists = playlists,
+            names = SearchIndex.ofNames(playlists.map { it.name })
+        ).also { playlistNamesCache = it }
+    }
+
+    private fun invalidateSearch() {
+        searchGeneration.incrementAndGet()
+    }
+
+    private fun invalidatePlaylists() {
+        playlistGeneration.incrementAndGet()
+    }
+
     override suspend fun getSongsByAlbum(albumId: Long): List<Song> {
-        return cachedSongs.filter { it.albumId == albumId }
-            .sortedBy { it.trackNumber }
+        val index = songIndex.value
+        if (!index.isComplete) return musicDao.getSongsByAlbum(albumId).map { it.toSong() }
+        return index.songsByAlbum(albumId)
     }
 
     override suspend fun getSongsByArtist(artistId: Long): List<Song> {
-        // Filter by artist name since we store artist name in Song
-        return cachedSongs
+        val index = songIndex.value
+        if (!index.isComplete) return musicDao.getSongsByArtist(artistId).map { it.toSong() }
+        return index.songsByArtist(artistId)
     }
 
     override suspend fun getSongsByFolder(folderPath: String): List<Song> {
-        return cachedSongs.filter { it.path.startsWith(folderPath) }
+        return musicDao.getSongsByFolder(folderPath).map { it.toSong() }
     }
 
     override fun getFavoriteSongs(): Flow<List<Song>> {
-        return musicDao.getAllFavorites().map { favorites ->
-            val favIds = favorites.map { it.songId }.toSet()
-            cachedSongs.filter { it.id in favIds }.map { it.copy(isFavorite = true) }
+        return combine(musicDao.getAllFavorites(), songIndex) { favorites, index ->
+            if (!index.isComplete) {
+                musicDao.getFavoriteSongs().map { it.toSong() }
+            } else {
+                index.resolve(favorites.map { it.songId })
+            }
         }
     }
 
-    override fun getAllAlbums(): Flow<List<Album>> = flow {
-        emit(mediaStoreHelper.getAllAlbums())
+    override fun getAllAlbums(): Flow<List<Album>> {
+        return musicDao.observeAlbums().map { albums -> albums.map { it.toAlbum() } }
+    }
+
+    override fun getAllArtists(): Flow<List<Artist>> {
+        return musicDao.observeArtists().map { artists -> artists.map { it.toArtist() } }
     }
 
-    override fun getAllArtists(): Flow<List<Artist>> = flow {
-        emit(mediaStoreHelper.getAllArtists())
+    override fun getAllFolders(): Flow<List<Folder>> {
+        return musicDao.observeRootFolders().map { folders -> folders.map { it.toFolder() } }
     }
 
-    override fun getAllFolders(): Flow<List<Folder>> = flow {
-        val songs = if (cachedSongs.isEmpty()) mediaStoreHelper.getAllSongs() else cachedSongs
-        emit(mediaStoreHelper.getFolders(songs))
+    override fun getSubfolders(parentPath: String): Flow<List<Folder>> {
+        return musicDao.observeSubfolders(parentPath).map { folders -> folders.map { it.toFolder() } }
+    }
+
+    override suspend fun getFolder(path: String): Folder? {
+        return musicDao.getFolder(path)?.toFolder()
     }
 
     override fun getAllPlaylists(): Flow<List<Playlist>> {
-        return musicDao.getAllPlaylists().map { entities ->
-            entities.map { entity ->
-                val count = musicDao.getPlaylistSongCount(entity.id)
-                Playlist(
-                    id = entity.id,
-                    name = entity.name,
-                    songCount = count,
-                    createdAt = entity.createdAt
-                )
-            }
-        }
+        return musicDao.observePlaylistSummaries().map { rows -> rows.map { it.toPlaylist() } }
     }
 
     override suspend fun createPlaylist(name: String): Long {
-        return musicDao.insertPlaylist(PlaylistEntity(name = name))
+        return musicDao.insertPlaylist(PlaylistEntity(name = name)).also { invalidatePlaylists() }
     }
 
     override suspend fun deletePlaylist(playlistId: Long) {
         musicDao.clearPlaylist(playlistId)
         musicDao.deletePlaylist(PlaylistEntity(id = playlistId, name = ""))
+        invalidatePlaylists()
     }
 
     override suspend fun addSongToPlaylist(songId: Long, playlistId: Long) {
-        val count = musicDao.getPlaylistSongCount(playlistId)
-        musicDao.addSongToPlaylist(
-            PlaylistSongEntity(
-                playlistId = playlistId,
-                songId = songId,
-                position = count
-            )
-        )
+        addSongsToPlaylist(listOf(songId), playlistId)
     }
 
     override suspend fun removeSongFromPlaylist(songId: Long, playlistId: Long) {
-        musicDao.removeSongFromPlaylist(playlistId, songId)
+        removeSongsFromPlaylist(listOf(songId), playlistId)
+    }
+
+    override suspend fun addSongsToPlaylist(songIds: List<Long>, playlistId: Long): Int {
+        return musicDao.addSongsToPlaylist(playlistId, songIds).also { invalidatePlaylists() }
+    }
+
+    override suspend fun removeSongsFromPlaylist(songIds: List<Long>, playlistId: Long) {
+        musicDao.removeSongsFromPlaylist(playlistId, songIds)
+        invalidatePlaylists()
+    }
+
+    override suspend fun moveSongsInPlaylist(songIds: List<Long>, playlistId: Long, toIndex: Int) {
+        musicDao.moveSongsInPlaylist(playlistId, songIds, toIndex)
+        invalidatePlaylists()
+    }
+
+    override suspend fun movePlaylistSong(playlistId: Long, from: Int, to: Int) {
+        musicDao.movePlaylistSong(playlistId, from, to)
+        invalidatePlaylists()
     }
 
     override suspend fun getPlaylistSongs(playlistId: Long): List<Song> {
-        val songIds = musicDao.getPlaylistSongIds(playlistId)
-        return songIds.mapNotNull { id -> cachedSongs.find { it.id == id } }
+        val index = songIndex.value
+        if (!index.isComplete) return musicDao.getPlaylistSongs(playlistId).map { it.toSong() }
+        return index.resolve(musicDao.getPlaylistSongIds(playlistId))
+    }
+
+    override suspend fun getMostPlayed(limit: Int): List<Song> {
+        return resolveIds(musicDao.getMostPlayedIds(limit))
+    }
+
+    override suspend fun getRecentlyPlayed(limit: Int): List<Song> {
+        return resolveIds(musicDao.getRecentlyPlayedIds(limit))
+    }
+
+    override suspend fun getForgotten(limit: Int): List<Song> {
+        val before = System.currentTimeMillis() - FORGOTTEN_AFTER_MS
+        return resolveIds(musicDao.getForgottenIds(before, FORGOTTEN_MIN_PLAYS, limit))
+    }
+
+    // Stats outlive deleted songs; those ids resolve to nothing and are dropped
+    private suspend fun resolveIds(ids: List<Long>): List<Song> {
+        val index = songIndex.value
+        if (index.isComplete) return index.resolve(ids)
+        return ids.mapNotNull { musicDao.getSongById(it)?.toSong() }
     }
 
     override suspend fun toggleFavorite(songId: Long) {
-        if (musicDao.isFavorite(songId)) {
-            musicDao.removeFavorite(FavoriteEntity(songId))
-        } else {
-            musicDao.addFavorite(FavoriteEntity(songId))
+        favorites()
+        val change = favoritesMutex.withLock {
+            val current = favoriteIds.value!!
+            val isFavorite = songId !in current
+            if (isFavorite) {
+                musicDao.addFavorite(FavoriteEntity(songId))
+            } else {
+                musicDao.removeFavorite(FavoriteEntity(songId))
+            }
+            favoriteIds.value = current.with(songId, isFavorite)
+            FavoriteChange(songId, isFavorite)
         }
+        favoriteChangeEvents.emit(change)
     }
 
     override suspend fun isFavorite(songId: Long): Boolean {
-        return musicDao.isFavorite(songId)
+        return songId in favorites()
+    }
+
+    override fun observeFavoriteIds(): Flow<FavoriteIds> = flow {
+        favorites()
+        emitAll(favoriteIds.filterNotNull())
+    }
+
+    override fun favoriteChanges(): Flow<FavoriteChange> = favoriteChangeEvents
+
+    private suspend fun favorites(): FavoriteIds {
+        favoriteIds.value?.let { return it }
+        return favoritesMutex.withLock {
+            favoriteIds.value ?: FavoriteSet(LongHashSet(0).apply {
+                musicDao.getFavoriteIds().forEach { add(it) }
+            }).also { favoriteIds.value = it }
+        }
     }
 }
+
+private class FavoriteSet(private val ids: LongHashSet) : FavoriteIds {
+    override val size: Int
+        get() = ids.size
+
+    override fun contains(songId: Long) = songId in ids
+
+    fun with(songId: Long, isFavorite: Boolean): FavoriteSet {
+        val copy = ids.copy()
+        if (isFavorite) copy.add(songId) else copy.remove(songId)
+        return FavoriteSet(copy)
+    }
+}
+
+private class LibraryNames(
+    val generation: Long,
+    val albums: List<Album>,
+    val albumNames: SearchIndex,
+    val artists: List<Artist>,
+    val artistNames: SearchIndex,
+    val folders: List<Folder>,
+    val folderNames: SearchIndex
+)
+
+private class PlaylistNames(
+    val generation: Long,
+    val playlists: List<Playlist>,
+    val names: SearchIndex
+)
@@ -2,6 +2,7 @@ package com.alkhufash.music.di
 
 import android.content.Context
 import androidx.room.Room
+import com.alkhufash.music.data.db.Migrations
 import com.alkhufash.music.data.db.MusicDao
 import com.alkhufash.music.data.db.MusicDatabase
 import com.alkhufash.music.data.model.MediaStoreHelper
@@ -26,7 +27,8 @@ object DatabaseModule {
             context,
             MusicDatabase::class.java,
             MusicDatabase.DATABASE_NAME
-        ).fallbackToDestructiveMigration()
+        ).addMigrations(*Migrations.ALL)
+            .fallbackToDestructiveMigrationOnDowngrade()
             .build()
     }
 
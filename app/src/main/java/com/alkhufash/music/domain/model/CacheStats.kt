@@ -0,0 +1,11 @@
+package com.alkhufash.music.domain.model
+
+data class CacheStats(
+    val hits: Long,
+    val misses: Long,
+    val size: Int,
+    val maxSize: Int
+) {
+    val hitRate: Float
+        get() = if (hits + misses == 0L) 0f else hits.toFloat() / (hits + misses)
+}
@@ -0,0 +1,7 @@
+package com.alkhufash.music.domain.model
+
+/** One song added to or removed from the favorites. */
+data class FavoriteChange(
+    val songId: Long,
+    val isFavorite: Boolean
+)
@@ -0,0 +1,20 @@
+package com.alkhufash.music.domain.model
+
+/**
+ * The ids of the favorite songs. Read-only: every change publishes a new
+ * instance, so one held by the UI never changes under it.
+ */
+interface FavoriteIds {
+    val size: Int
+
+    operator fun contains(songId: Long): Boolean
+
+    companion object {
+        val EMPTY: FavoriteIds = object : FavoriteIds {
+            override val size: Int
+                get() = 0
+
+            override fun contains(songId: Long) = false
+        }
+    }
+}
@@ -3,5 +3,9 @@ package com.alkhufash.music.domain.model
 data class Folder(
     val path: String,
     val name: String,
-    val songCount: Int
+    val songCount: Int,
+    val parentPath: String? = null,
+    val directSongCount: Int = songCount,
+    val totalDuration: Long = 0,
+    val subfolderCount: Int = 0
 )
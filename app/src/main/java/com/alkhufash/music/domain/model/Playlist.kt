@@ -4,5 +4,8 @@ data class Playlist(
     val id: Long,
     val name: String,
     val songCount: Int = 0,
-    val createdAt: Long = System.currentTimeMillis()
+    val createdAt: Long = System.currentTimeMillis(),
+    val totalDuration: Long = 0,
+    // Albums of the playlist's songs, for its cover
+    val coverAlbumIds: List<Long> = emptyList()
 )
@@ -0,0 +1,56 @@
+package com.alkhufash.music.domain.model
+
+/**
+ * One result of a library-wide search. [highlights] are the character ranges
+ * of [label] that matched the query.
+ */
+sealed class SearchHit {
+    abstract val label: String
+    abstract val score: Int
+    abstract val highlights: List<IntRange>
+
+    data class SongHit(
+        val song: Song,
+        override val score: Int,
+        override val highlights: List<IntRange>
+    ) : SearchHit() {
+        override val label: String
+            get() = song.title
+    }
+
+    data class AlbumHit(
+        val album: Album,
+        override val score: Int,
+        override val highlights: List<IntRange>
+    ) : SearchHit() {
+        override val label: String
+            get() = album.name
+    }
+
+    data class ArtistHit(
+        val artist: Artist,
+        override val score: Int,
+        override val highlights: List<IntRange>
+    ) : SearchHit() {
+        override val label: String
+            get() = artist.name
+    }
+
+    data class FolderHit(
+        val folder: Folder,
+        override val score: Int,
+        override val highlights: List<IntRange>
+    ) : SearchHit() {
+        override val label: String
+            get() = folder.name
+    }
+
+    data class PlaylistHit(
+        val playlist: Playlist,
+        override val score: Int,
+        override val highlights: List<IntRange>
+    ) : SearchHit() {
+        override val label: String
+            get() = playlist.name
+    }
+}
@@ -1,22 +1,28 @@
 package com.alkhufash.music.domain.model
 
+import android.content.ContentUris
 import android.net.Uri
+import android.provider.MediaStore
 
 data class Song(
     val id: Long,
     val title: String,
     val artist: String,
+    val artistId: Long = 0,
     val album: String,
     val albumId: Long,
     val duration: Long,
-    val uri: Uri,
     val path: String,
     val size: Long,
     val dateAdded: Long,
+    val dateModified: Long = 0,
     val trackNumber: Int = 0,
-    val year: Int = 0,
-    val isFavorite: Boolean = false
+    val year: Int = 0
 ) {
+    // Built on access rather than stored: only playback needs it
+    val uri: Uri
+        get() = ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id)
+
     val durationFormatted: String
         get() {
             val minutes = (duration / 1000) / 60
@@ -0,0 +1,18 @@
+package com.alkhufash.music.domain.model
+
+/**
+ * The library's songs in title order, stamped with a [generation] that changes
+ * whenever they do. Equality compares generations only, so comparing two UI
+ * states never walks [songs], which for a large library builds each Song as it
+ * is read.
+ */
+class SongCatalog(val generation: Long, val songs: List<Song>) {
+
+    override fun equals(other: Any?): Boolean = other is SongCatalog && other.generation == generation
+
+    override fun hashCode(): Int = generation.hashCode()
+
+    companion object {
+        val EMPTY = SongCatalog(0, emptyList())
+    }
+}
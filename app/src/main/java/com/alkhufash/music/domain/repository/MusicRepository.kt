@@ -2,16 +2,33 @@ package com.alkhufash.music.domain.repository
 
 import com.alkhufash.music.domain.model.Album
 import com.alkhufash.music.domain.model.Artist
+import com.alkhufash.music.domain.model.CacheStats
+import com.alkhufash.music.domain.model.FavoriteChange
+import com.alkhufash.music.domain.model.FavoriteIds
 import com.alkhufash.music.domain.model.Folder
 import com.alkhufash.music.domain.model.Playlist
+import com.alkhufash.music.domain.model.SearchHit
 import com.alkhufash.music.domain.model.Song
+import com.alkhufash.music.domain.model.SongCatalog
 import kotlinx.coroutines.flow.Flow
 
 interface MusicRepository {
     // Songs
-    fun getAllSongs(): Flow<List<Song>>
+    fun getAllSongs(): Flow<SongCatalog>
     suspend fun getSongById(id: Long): Song?
     suspend fun searchSongs(query: String): List<Song>
+    /** Hit counters of the searchSongs result cache, for tuning its size. */
+    fun getSearchCacheStats(): CacheStats
+    /**
+     * The songs of [results], found for [previousQuery], that match [query]
+     * exactly, in the same order. Empty when [query] could match songs outside
+     * [results] and needs a fresh search.
+     */
+    suspend fun narrowSearch(results: List<Song>, previousQuery: String, query: String): List<Song>
+    /** The best [limit] hits across songs, albums, artists, folders and playlists, best first. */
+    suspend fun searchAll(query: String, limit: Int): List<SearchHit>
+    /** [searchAll] without songs, for callers that list them on their own. */
+    suspend fun searchEntities(query: String, limit: Int): List<SearchHit>
     suspend fun getSongsByAlbum(albumId: Long): List<Song>
     suspend fun getSongsByArtist(artistId: Long): List<Song>
     suspend fun getSongsByFolder(folderPath: String): List<Song>
@@ -25,6 +42,8 @@ interface MusicRepository {
 
     // Folders
     fun getAllFolders(): Flow<List<Folder>>
+    fun getSubfolders(parentPath: String): Flow<List<Folder>>
+    suspend fun getFolder(path: String): Folder?
 
     // Playlists
     fun getAllPlaylists(): Flow<List<Playlist>>
@@ -32,9 +51,26 @@ interface MusicRepository {
     suspend fun deletePlaylist(playlistId: Long)
     suspend fun addSongToPlaylist(songId: Long, playlistId: Long)
     suspend fun removeSongFromPlaylist(songId: Long, playlistId: Long)
+    /** Appends the songs not already in the playlist in one transaction; returns how many were added. */
+    suspend fun addSongsToPlaylist(songIds: List<Long>, playlistId: Long): Int
+    suspend fun removeSongsFromPlaylist(songIds: List<Long>, playlistId: Long)
+    /** Moves [songIds] together, in playlist order, to [toIndex] among the other songs. */
+    suspend fun moveSongsInPlaylist(songIds: List<Long>, playlistId: Long, toIndex: Int)
+    /** Moves the song at index [from] of the playlist to index [to], writing one row. */
+    suspend fun movePlaylistSong(playlistId: Long, from: Int, to: Int)
     suspend fun getPlaylistSongs(playlistId: Long): List<Song>
 
+    // Play history, from the rolled-up play statistics
+    suspend fun getMostPlayed(limit: Int): List<Song>
+    suspend fun getRecentlyPlayed(limit: Int): List<Song>
+    /** Songs played often in the past but not in the last month. */
+    suspend fun getForgotten(limit: Int): List<Song>
+
     // Favorites
     suspend fun toggleFavorite(songId: Long)
     suspend fun isFavorite(songId: Long): Boolean
+    /** The current favorite ids, then a new set after every toggle. */
+    fun observeFavoriteIds(): Flow<FavoriteIds>
+    /** Each toggle as it happens, for callers keeping their own per-song state. */
+    fun favoriteChanges(): Flow<FavoriteChange>
 }
@@ -28,6 +28,7 @@ import com.alkhufash.music.presentation.theme.BatPurple
 fun SongItem(
     song: Song,
     isPlaying: Boolean = false,
+    isFavorite: Boolean,
     onClick: () -> Unit,
     onFavoriteClick: () -> Unit = {},
     modifier: Modifier = Modifier
@@ -121,9 +122,9 @@ fun SongItem(
             modifier = Modifier.size(40.dp)
         ) {
             Icon(
-                imageVector = if (song.isFavorite) Icons.Default.Favorite else Icons.Default.FavoriteBorder,
+                imageVector = if (isFavorite) Icons.Default.Favorite else Icons.Default.FavoriteBorder,
                 contentDescription = "مفضلة",
-                tint = if (song.isFavorite) BatPink
+                tint = if (isFavorite) BatPink
                 else MaterialTheme.colorScheme.onSurfaceVariant.copy(alpha = 0.5f),
                 modifier = Modifier.size(20.dp)
             )
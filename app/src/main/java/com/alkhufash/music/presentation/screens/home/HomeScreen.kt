@@ -1,13 +1,16 @@
 package com.alkhufash.music.presentation.screens.home
 
+import androidx.activity.compose.BackHandler
 import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
+import androidx.compose.foundation.horizontalScroll
 import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.lazy.LazyColumn
 import androidx.compose.foundation.lazy.grid.GridCells
 import androidx.compose.foundation.lazy.grid.LazyVerticalGrid
 import androidx.compose.foundation.lazy.grid.items
 import androidx.compose.foundation.lazy.items
+import androidx.compose.foundation.rememberScrollState
 import androidx.compose.foundation.shape.CircleShape
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
@@ -22,6 +25,9 @@ import androidx.compose.ui.graphics.Brush
 import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.layout.ContentScale
 import androidx.compose.ui.res.stringResource
+import androidx.compose.ui.text.SpanStyle
+import androidx.compose.ui.text.buildAnnotatedString
+import androidx.compose.ui.text.withStyle
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.text.style.TextOverflow
@@ -29,6 +35,8 @@ import androidx.compose.ui.unit.dp
 import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import coil.compose.AsyncImage
 import com.alkhufash.music.R
+import com.alkhufash.music.domain.model.FavoriteIds
+import com.alkhufash.music.domain.model.SearchHit
 import com.alkhufash.music.domain.model.Song
 import com.alkhufash.music.presentation.components.MiniPlayer
 import com.alkhufash.music.presentation.components.SongItem
@@ -38,7 +46,9 @@ import com.alkhufash.music.presentation.theme.BatPink
 import com.alkhufash.music.presentation.theme.BatPurple
 import com.alkhufash.music.presentation.theme.BatPurpleLight
 import com.alkhufash.music.presentation.viewmodel.MusicViewModel
+import com.alkhufash.music.presentation.viewmodel.PlayHistoryList
 import com.alkhufash.music.service.PlayerState
+import com.alkhufash.music.utils.DurationUtils
 
 @OptIn(ExperimentalMaterial3Api::class)
 @Composable
@@ -51,6 +61,7 @@ fun HomeScreen(
 ) {
     val uiState by viewModel.uiState.collectAsStateWithLifecycle()
     val playerState by viewModel.playerState.collectAsStateWithLifecycle()
+    val favoriteIds by viewModel.favoriteIds.collectAsStateWithLifecycle()
     var selectedTab by remember { mutableIntStateOf(0) }
     var searchQuery by remember { mutableStateOf("") }
     var isSearchActive by remember { mutableStateOf(false) }
@@ -84,10 +95,25 @@ fun HomeScreen(
                     modifier = Modifier.fillMaxWidth()
                 ) {
                     LazyColumn {
-                        items(uiState.searchResults) { song ->
+                        items(uiState.searchHits, contentType = { "hit" }) { hit ->
+                            SearchHitItem(
+                                hit = hit,
+                                onClick = {
+                                    when (hit) {
+                                        is SearchHit.AlbumHit -> viewModel.playAlbum(hit.album, onNavigateToNowPlaying)
+                                        is SearchHit.ArtistHit -> viewModel.playArtist(hit.artist, onNavigateToNowPlaying)
+                                        is SearchHit.FolderHit -> viewModel.playFolder(hit.folder, onNavigateToNowPlaying)
+                                        is SearchHit.PlaylistHit -> viewModel.playPlaylist(hit.playlist, onNavigateToNowPlaying)
+                                        is SearchHit.SongHit -> onSongClick(hit.song)
+                                    }
+                                }
+                            )
+                        }
+                        items(uiState.searchResults, contentType = { "song" }) { song ->
                             SongItem(
                                 song = song,
                                 isPlaying = playerState.currentMediaId == song.id.toString(),
+                                isFavorite = song.id in favoriteIds,
                                 onClick = { onSongClick(song) },
                                 onFavoriteClick = { viewModel.toggleFavorite(song.id) }
                             )
@@ -230,6 +256,7 @@ fun HomeScreen(
             when (selectedTab) {
                 0 -> SongsTab(
                     songs = uiState.songs,
+                    favoriteIds = favoriteIds,
                     currentMediaId = playerState.currentMediaId,
                     onSongClick = onSongClick,
                     onFavoriteClick = { viewModel.toggleFavorite(it) },
@@ -238,27 +265,30 @@ fun HomeScreen(
                 1 -> AlbumsTab(
                     albums = uiState.albums,
                     onAlbumClick = { album ->
-                        val songs = viewModel.getAlbumSongs(album.id)
-                        if (songs.isNotEmpty()) {
-                            viewModel.playSongs(songs)
-                            onNavigateToNowPlaying()
-                        }
+                        viewModel.playAlbum(album, onStarted = onNavigateToNowPlaying)
+                    }
+                )
+                2 -> ArtistsTab(
+                    artists = uiState.artists,
+                    onArtistClick = { artist ->
+                        viewModel.playArtist(artist, onStarted = onNavigateToNowPlaying)
                     }
                 )
-                2 -> ArtistsTab(artists = uiState.artists)
                 3 -> PlaylistsTab(
                     playlists = uiState.playlists,
-                    onCreatePlaylist = { viewModel.createPlaylist(it) }
+                    onCreatePlaylist = { viewModel.createPlaylist(it) },
+                    onHistoryListClick = { list ->
+                        viewModel.playHistoryList(list, onStarted = onNavigateToNowPlaying)
+                    }
                 )
                 4 -> FoldersTab(
                     folders = uiState.folders,
-                    onFolderClick = { folder ->
-                        val songs = viewModel.getFolderSongs(folder.path)
-                        if (songs.isNotEmpty()) {
-                            viewModel.playSongs(songs)
-                            onNavigateToNowPlaying()
-                        }
-                    }
+                    currentFolder = uiState.currentFolder,
+                    onFolderOpen = { viewModel.openFolder(it) },
+                    onFolderPlay = { folder ->
+                        viewModel.playFolder(folder, onStarted = onNavigateToNowPlaying)
+                    },
+                    onNavigateUp = { viewModel.navigateUpFolder() }
                 )
             }
         }
@@ -268,6 +298,7 @@ fun HomeScreen(
 @Composable
 fun SongsTab(
     songs: List<Song>,
+    favoriteIds: FavoriteIds,
     currentMediaId: String,
     onSongClick: (Song) -> Unit,
     onFavoriteClick: (Long) -> Unit,
@@ -331,10 +362,11 @@ fun SongsTab(
         modifier = Modifier.fillMaxSize(),
         contentPadding = PaddingValues(vertical = 8.dp)
     ) {
-        items(songs, key = { it.id }) { song ->
+        items(songs, key = { it.id }, contentType = { "song" }) { song ->
             SongItem(
                 song = song,
                 isPlaying = currentMediaId == song.id.toString(),
+                isFavorite = song.id in favoriteIds,
                 onClick = { onSongClick(song) },
                 onFavoriteClick = { onFavoriteClick(song.id) }
             )
@@ -454,7 +486,10 @@ fun AlbumCard(
 }
 
 @Composable
-fun ArtistsTab(artists: List<com.alkhufash.music.domain.model.Artist>) {
+fun ArtistsTab(
+    artists: List<com.alkhufash.music.domain.model.Artist>,
+    onArtistClick: (com.alkhufash.music.domain.model.Artist) -> Unit
+) {
     if (artists.isEmpty()) {
         Box(modifier = Modifier.fillMaxSize(), contentAlignment = Alignment.Center) {
             Column(horizontalAlignment = Alignment.CenterHorizontally) {
@@ -510,7 +545,8 @@ fun ArtistsTab(artists: List<com.alkhufash.music.domain.model.Artist>) {
                             modifier = Modifier.size(24.dp)
                         )
                     }
-                }
+                },
+                modifier = Modifier.clickable { onArtistClick(artist) }
             )
             HorizontalDivider(
                 modifier = Modifier.padding(horizontal = 16.dp),
@@ -523,7 +559,8 @@ fun ArtistsTab(artists: List<com.alkhufash.music.domain.model.Artist>) {
 @Composable
 fun PlaylistsTab(
     playlists: List<com.alkhufash.music.domain.model.Playlist>,
-    onCreatePlaylist: (String) -> Unit
+    onCreatePlaylist: (String) -> Unit,
+    onHistoryListClick: (PlayHistoryList) -> Unit
 ) {
     var showDialog by remember { mutableStateOf(false) }
     var newPlaylistName by remember { mutableStateOf("") }
@@ -596,6 +633,27 @@ fun PlaylistsTab(
             }
         }
 
+        // قوائم تلقائية من سجل التشغيل
+        Row(
+            modifier = Modifier
+                .fillMaxWidth()
+                .horizontalScroll(rememberScrollState())
+                .padding(horizontal = 16.dp),
+            horizontalArrangement = Arrangement.spacedBy(8.dp)
+        ) {
+            listOf(
+                Triple(PlayHistoryList.MOST_PLAYED, Icons.Default.TrendingUp, R.string.most_played),
+                Triple(PlayHistoryList.RECENTLY_PLAYED, Icons.Default.History, R.string.recently_played),
+                Triple(PlayHistoryList.FORGOTTEN, Icons.Default.HourglassEmpty, R.string.forgotten_songs)
+            ).forEach { (list, icon, label) ->
+                AssistChip(
+                    onClick = { onHistoryListClick(list) },
+                    label = { Text(stringResource(label)) },
+                    leadingIcon = { Icon(icon, contentDescription = null, tint = BatOrange) }
+                )
+            }
+        }
+
         if (playlists.isEmpty()) {
             Box(
                 modifier = Modifier.fillMaxSize(),
@@ -624,7 +682,8 @@ fun PlaylistsTab(
                         },
                         supportingContent = {
                             Text(
-                                "${playlist.songCount} ${stringResource(R.string.songs)}",
+                                "${playlist.songCount} ${stringResource(R.string.songs)} • " +
+                                    DurationUtils.formatDuration(playlist.totalDuration),
                                 color = BatOrange
                             )
                         },
@@ -646,6 +705,15 @@ fun PlaylistsTab(
                                     tint = Color.White,
                                     modifier = Modifier.size(24.dp)
                                 )
+                                // غلاف أول ألبوم في القائمة فوق الأيقونة إن وُجد
+                                playlist.coverAlbumIds.firstOrNull()?.let { albumId ->
+                                    AsyncImage(
+                                        model = "content://media/external/audio/albumart/$albumId",
+                                        contentDescription = null,
+                                        modifier = Modifier.fillMaxSize(),
+                                        contentScale = ContentScale.Crop
+                                    )
+                                }
                             }
                         }
                     )
@@ -662,9 +730,14 @@ fun PlaylistsTab(
 @Composable
 fun FoldersTab(
     folders: List<com.alkhufash.music.domain.model.Folder>,
-    onFolderClick: (com.alkhufash.music.domain.model.Folder) -> Unit
+    currentFolder: com.alkhufash.music.domain.model.Folder?,
+    onFolderOpen: (com.alkhufash.music.domain.model.Folder) -> Unit,
+    onFolderPlay: (com.alkhufash.music.domain.model.Folder) -> Unit,
+    onNavigateUp: () -> Unit
 ) {
-    if (folders.isEmpty()) {
+    BackHandler(enabled = currentFolder != null, onBack = onNavigateUp)
+
+    if (folders.isEmpty() && currentFolder == null) {
         Box(modifier = Modifier.fillMaxSize(), contentAlignment = Alignment.Center) {
             Column(horizontalAlignment = Alignment.CenterHorizontally) {
                 Icon(
@@ -686,6 +759,39 @@ fun FoldersTab(
         modifier = Modifier.fillMaxSize(),
         contentPadding = PaddingValues(vertical = 8.dp)
     ) {
+        // المجلد الحالي: رجوع للأعلى وتشغيل كل ما بداخله
+        if (currentFolder != null) {
+            item(key = "parent") {
+                ListItem(
+                    headlineContent = {
+                        Text(currentFolder.name, fontWeight = FontWeight.Bold)
+                    },
+                    supportingContent = {
+                        Text(
+                            stringResource(R.string.parent_folder),
+                            color = MaterialTheme.colorScheme.onSurfaceVariant
+                        )
+                    },
+                    leadingContent = {
+                        Icon(Icons.Default.ArrowUpward, contentDescription = null, tint = BatCyan)
+                    },
+                    trailingContent = {
+                        IconButton(onClick = { onFolderPlay(currentFolder) }) {
+                            Icon(
+                                Icons.Default.PlayArrow,
+                                stringResource(R.string.play_folder),
+                                tint = BatCyan
+                            )
+                        }
+                    },
+                    modifier = Modifier.clickable { onNavigateUp() }
+                )
+                HorizontalDivider(
+                    modifier = Modifier.padding(horizontal = 16.dp),
+                    color = MaterialTheme.colorScheme.outline.copy(alpha = 0.3f)
+                )
+            }
+        }
         items(folders, key = { it.path }) { folder ->
             ListItem(
                 headlineContent = {
@@ -693,7 +799,8 @@ fun FoldersTab(
                 },
                 supportingContent = {
                     Text(
-                        "${folder.songCount} ${stringResource(R.string.songs)}",
+                        "${folder.songCount} ${stringResource(R.string.songs)} • " +
+                            DurationUtils.formatDuration(folder.totalDuration),
                         color = BatCyan
                     )
                 },
@@ -717,7 +824,20 @@ fun FoldersTab(
                         )
                     }
                 },
-                modifier = Modifier.clickable { onFolderClick(folder) }
+                trailingContent = if (folder.subfolderCount > 0) {
+                    {
+                        IconButton(onClick = { onFolderPlay(folder) }) {
+                            Icon(
+                                Icons.Default.PlayArrow,
+                                stringResource(R.string.play_folder),
+                                tint = BatCyan
+                            )
+                        }
+                    }
+                } else null,
+                modifier = Modifier.clickable {
+                    if (folder.subfolderCount > 0) onFolderOpen(folder) else onFolderPlay(folder)
+                }
             )
             HorizontalDivider(
                 modifier = Modifier.padding(horizontal = 16.dp),
@@ -726,3 +846,69 @@ fun FoldersTab(
         }
     }
 }
+
+// نتيجة بحث لألبوم أو فنان أو مجلد أو قائمة تشغيل، مع تمييز الجزء المطابق
+@Composable
+fun SearchHitItem(
+    hit: SearchHit,
+    onClick: () -> Unit
+) {
+    val (icon, supporting) = when (hit) {
+        is SearchHit.AlbumHit -> Icons.Default.Album to hit.album.artist
+        is SearchHit.ArtistHit -> Icons.Default.Person to "${hit.artist.songCount} ${stringResource(R.string.songs)}"
+        is SearchHit.FolderHit -> Icons.Default.Folder to "${hit.folder.songCount} ${stringResource(R.string.songs)}"
+        is SearchHit.PlaylistHit -> Icons.Default.QueueMusic to "${hit.playlist.songCount} ${stringResource(R.string.songs)}"
+        is SearchHit.SongHit -> Icons.Default.MusicNote to hit.song.artist
+    }
+    val label = buildAnnotatedString {
+        var next = 0
+        for (range in hit.highlights) {
+            if (range.first < next) continue
+            append(hit.label.substring(next, range.first))
+            withStyle(SpanStyle(color = BatPink, fontWeight = FontWeight.Bold)) {
+                append(hit.label.substring(range.first, range.last + 1))
+            }
+            next = range.last + 1
+        }
+        append(hit.label.substring(next))
+    }
+    ListItem(
+        headlineContent = {
+            Text(
+                label,
+                fontWeight = FontWeight.SemiBold,
+                maxLines = 1,
+                overflow = TextOverflow.Ellipsis
+            )
+        },
+        supportingContent = {
+            Text(
+                supporting,
+                color = BatPurple,
+                maxLines = 1,
+                overflow = TextOverflow.Ellipsis
+            )
+        },
+        leadingContent = {
+            Box(
+                modifier = Modifier
+                    .size(48.dp)
+                    .clip(CircleShape)
+                    .background(
+                        Brush.radialGradient(
+                            colors = listOf(BatPurple.copy(alpha = 0.7f), BatPink.copy(alpha = 0.5f))
+                        )
+                    ),
+                contentAlignment = Alignment.Center
+            ) {
+                Icon(
+                    icon,
+                    contentDescription = null,
+                    tint = Color.White,
+                    modifier = Modifier.size(24.dp)
+                )
+            }
+        },
+        modifier = Modifier.clickable(onClick = onClick)
+    )
+}
@@ -46,8 +46,10 @@ fun NowPlayingScreen(
     val playerState by viewModel.playerState.collectAsStateWithLifecycle()
     val currentPosition by viewModel.currentPosition.collectAsStateWithLifecycle()
     val duration by viewModel.duration.collectAsStateWithLifecycle()
+    val favoriteIds by viewModel.favoriteIds.collectAsStateWithLifecycle()
 
     val song = uiState.currentSong
+    val isFavorite = song != null && song.id in favoriteIds
 
     // انيميشن دوران الأسطوانة
     val rotation = rememberInfiniteTransition(label = "rotation")
@@ -376,10 +378,10 @@ fun NowPlayingScreen(
                     // مفضلة
                     IconButton(onClick = { song?.let { viewModel.toggleFavorite(it.id) } }) {
                         Icon(
-                            imageVector = if (song?.isFavorite == true) Icons.Default.Favorite
+                            imageVector = if (isFavorite) Icons.Default.Favorite
                             else Icons.Default.FavoriteBorder,
                             contentDescription = stringResource(R.string.favorites),
-                            tint = if (song?.isFavorite == true) BatPink
+                            tint = if (isFavorite) BatPink
                             else MaterialTheme.colorScheme.onSurfaceVariant
                         )
                     }
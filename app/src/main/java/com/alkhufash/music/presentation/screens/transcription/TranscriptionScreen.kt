@@ -25,6 +25,9 @@ import androidx.compose.ui.graphics.Brush
 import androidx.compose.ui.graphics.Color
 import androidx.compose.ui.platform.LocalClipboardManager
 import androidx.compose.ui.text.AnnotatedString
+import androidx.compose.ui.text.SpanStyle
+import androidx.compose.ui.text.buildAnnotatedString
+import androidx.compose.ui.text.withStyle
 import androidx.compose.ui.text.font.FontWeight
 import androidx.compose.ui.text.style.TextAlign
 import androidx.compose.ui.text.style.TextOverflow
@@ -32,6 +35,7 @@ import androidx.compose.ui.unit.dp
 import androidx.compose.ui.unit.sp
 import androidx.lifecycle.compose.collectAsStateWithLifecycle
 import com.alkhufash.music.audio.SpeechToTextManager
+import com.alkhufash.music.audio.TranscriptionMatch
 import com.alkhufash.music.audio.TranscriptionRecord
 import com.alkhufash.music.presentation.theme.BatCyan
 import com.alkhufash.music.presentation.theme.BatOrange
@@ -42,6 +46,8 @@ import com.alkhufash.music.presentation.viewmodel.MusicViewModel
 import com.google.accompanist.permissions.ExperimentalPermissionsApi
 import com.google.accompanist.permissions.isGranted
 import com.google.accompanist.permissions.rememberPermissionState
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
 
 @OptIn(ExperimentalMaterial3Api::class, ExperimentalPermissionsApi::class)
 @Composable
@@ -53,6 +59,7 @@ fun TranscriptionScreen(
     val recognitionState by speechManager.recognitionState.collectAsStateWithLifecycle()
     val isListening by speechManager.isListening.collectAsStateWithLifecycle()
     val transcriptions by speechManager.transcriptions.collectAsStateWithLifecycle()
+    val transcriptionCount by speechManager.transcriptionCount.collectAsStateWithLifecycle()
 
     val micPermission = rememberPermissionState(Manifest.permission.RECORD_AUDIO)
     val clipboardManager = LocalClipboardManager.current
@@ -61,6 +68,17 @@ fun TranscriptionScreen(
     var currentText by remember { mutableStateOf("") }
     var showDeleteDialog by remember { mutableStateOf<Long?>(null) }
     var showClearDialog by remember { mutableStateOf(false) }
+    var recordsQuery by remember { mutableStateOf("") }
+
+    // نتائج البحث في السجلات، تُحدَّث بعد توقف الكتابة لحظة
+    val recordMatches by produceState<List<TranscriptionMatch>?>(null, recordsQuery, transcriptions) {
+        if (recordsQuery.isBlank()) {
+            value = null
+        } else {
+            delay(150)
+            value = speechManager.searchTranscriptions(recordsQuery)
+        }
+    }
 
     // تحديث النص الحالي من حالة التعرف
     LaunchedEffect(recognitionState) {
@@ -357,24 +375,55 @@ fun TranscriptionScreen(
                     horizontalArrangement = Arrangement.SpaceBetween
                 ) {
                     Text(
-                        "السجلات المحفوظة (${transcriptions.size})",
+                        "السجلات المحفوظة ($transcriptionCount)",
                         style = MaterialTheme.typography.titleMedium,
                         fontWeight = FontWeight.Bold
                     )
                 }
 
+                OutlinedTextField(
+                    value = recordsQuery,
+                    onValueChange = { recordsQuery = it },
+                    modifier = Modifier.fillMaxWidth(),
+                    placeholder = { Text("ابحث في السجلات") },
+                    leadingIcon = { Icon(Icons.Default.Search, null) },
+                    singleLine = true,
+                    shape = RoundedCornerShape(12.dp)
+                )
+
                 LazyColumn(
                     modifier = Modifier.fillMaxWidth(),
                     verticalArrangement = Arrangement.spacedBy(8.dp)
                 ) {
-                    items(transcriptions, key = { it.id }) { record ->
-                        TranscriptionRecordCard(
-                            record = record,
-                            onCopy = {
-                                clipboardManager.setText(AnnotatedString(record.text))
-                            },
-                            onDelete = { showDeleteDialog = record.id }
-                        )
+                    val matches = recordMatches
+                    if (matches != null) {
+                        items(matches, key = { it.record.id }) { match ->
+                            TranscriptionRecordCard(
+                                record = match.record,
+                                snippet = highlighted(match.snippet, match.highlights),
+                                loadText = { speechManager.getTranscriptionText(match.record.id) },
+                                onCopy = { text -> clipboardManager.setText(AnnotatedString(text)) },
+                                onDelete = { showDeleteDialog = match.record.id }
+                            )
+                        }
+                    } else {
+                        items(transcriptions, key = { it.id }) { record ->
+                            TranscriptionRecordCard(
+                                record = record,
+                                loadText = { speechManager.getTranscriptionText(record.id) },
+                                onCopy = { text -> clipboardManager.setText(AnnotatedString(text)) },
+                                onDelete = { showDeleteDialog = record.id }
+                            )
+                        }
+                        // الصفحة التالية تُقرأ فقط عند طلبها
+                        if (transcriptions.size < transcriptionCount) {
+                            item(key = "load_more") {
+                                TextButton(
+                                    onClick = { speechManager.loadMoreTranscriptions() },
+                                    modifier = Modifier.fillMaxWidth()
+                                ) { Text("عرض المزيد") }
+                            }
+                        }
                     }
                 }
             } else if (!isListening) {
@@ -412,9 +461,15 @@ fun TranscriptionScreen(
 @Composable
 private fun TranscriptionRecordCard(
     record: TranscriptionRecord,
-    onCopy: () -> Unit,
+    snippet: AnnotatedString? = null,
+    loadText: suspend () -> String?,
+    onCopy: (String) -> Unit,
     onDelete: () -> Unit
 ) {
+    val scope = rememberCoroutineScope()
+    // النص الكامل، يُقرأ عند التوسيع أو النسخ فقط
+    var fullText by remember(record.id) { mutableStateOf<String?>(null) }
+
     Card(
         modifier = Modifier.fillMaxWidth(),
         shape = RoundedCornerShape(12.dp),
@@ -469,9 +524,11 @@ private fun TranscriptionRecordCard(
                 )
             }
 
-            // النص المحول
+            // النص المحول أو معاينته، أو مقتطف منه عند البحث
             Text(
-                text = record.text,
+                text = snippet ?: AnnotatedString(
+                    fullText ?: if (record.truncated) record.preview + "…" else record.preview
+                ),
                 style = MaterialTheme.typography.bodyMedium,
                 color = MaterialTheme.colorScheme.onSurface,
                 lineHeight = 24.sp
@@ -483,8 +540,21 @@ private fun TranscriptionRecordCard(
                 horizontalArrangement = Arrangement.End,
                 verticalAlignment = Alignment.CenterVertically
             ) {
+                if (snippet == null && record.truncated && fullText == null) {
+                    TextButton(
+                        onClick = { scope.launch { fullText = loadText() } },
+                        contentPadding = PaddingValues(horizontal = 8.dp, vertical = 4.dp)
+                    ) {
+                        Text("عرض الكل", style = MaterialTheme.typography.labelMedium, color = BatPurple)
+                    }
+                }
                 TextButton(
-                    onClick = onCopy,
+                    onClick = {
+                        scope.launch {
+                            val text = fullText ?: loadText() ?: return@launch
+                            onCopy(text)
+                        }
+                    },
                     contentPadding = PaddingValues(horizontal = 8.dp, vertical = 4.dp)
                 ) {
                     Icon(
@@ -517,3 +587,17 @@ private fun TranscriptionRecordCard(
         }
     }
 }
+
+// تمييز مواضع التطابق داخل المقتطف
+private fun highlighted(text: String, ranges: List<IntRange>) = buildAnnotatedString {
+    var next = 0
+    for (range in ranges) {
+        if (range.first < next) continue
+        append(text.substring(next, range.first))
+        withStyle(SpanStyle(color = BatPink, fontWeight = FontWeight.Bold)) {
+            append(text.substring(range.first, range.last + 1))
+        }
+        next = range.last + 1
+    }
+    append(text.substring(next))
+}
@@ -11,9 +11,12 @@ import androidx.work.WorkManager
 import com.alkhufash.music.audio.SpeechToTextManager
 import com.alkhufash.music.domain.model.Album
 import com.alkhufash.music.domain.model.Artist
+import com.alkhufash.music.domain.model.FavoriteIds
 import com.alkhufash.music.domain.model.Folder
 import com.alkhufash.music.domain.model.Playlist
+import com.alkhufash.music.domain.model.SearchHit
 import com.alkhufash.music.domain.model.Song
+import com.alkhufash.music.domain.model.SongCatalog
 import com.alkhufash.music.domain.repository.MusicRepository
 import com.alkhufash.music.service.MusicController
 import com.alkhufash.music.service.PlayerState
@@ -22,12 +25,21 @@ import com.alkhufash.music.worker.SleepTimerWorker
 import com.alkhufash.music.worker.StartTimerWorker
 import dagger.hilt.android.lifecycle.HiltViewModel
 import dagger.hilt.android.qualifiers.ApplicationContext
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.FlowPreview
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.flow.debounce
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.mapLatest
+import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.launch
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
@@ -42,6 +54,9 @@ class MusicViewModel @Inject constructor(
 
     companion object {
         private const val TAG = "MusicViewModel"
+        private const val SEARCH_DEBOUNCE_MS = 150L
+        private const val SEARCH_HIT_LIMIT = 20
+        private const val HISTORY_LIST_LIMIT = 100
     }
 
     // UI State
@@ -58,7 +73,17 @@ class MusicViewModel @Inject constructor(
     private val _duration = MutableStateFlow(0L)
     val duration: StateFlow<Long> = _duration.asStateFlow()
 
+    // معرّفات المفضلة: كل صف يتحقق منها بنفسه، فتبديل القلب لا يعيد بناء قائمة الأغاني
+    val favoriteIds: StateFlow<FavoriteIds> = repository.observeFavoriteIds()
+        .stateIn(viewModelScope, SharingStarted.Eagerly, FavoriteIds.EMPTY)
+
     private var positionJob: Job? = null
+    private var foldersJob: Job? = null
+
+    private val searchQuery = MutableStateFlow("")
+    // Last completed search; cleared when the library changes so narrowing never
+    // works from a stale result set
+    @Volatile private var lastSearch: SearchResult? = null
 
     // ===== Timer State =====
     private val _sleepTimerMinutes = MutableStateFlow(0)
@@ -94,6 +119,7 @@ class MusicViewModel @Inject constructor(
     init {
         loadAllData()
         startPositionTracking()
+        observeSearch()
     }
 
     private fun loadAllData() {
@@ -114,9 +140,10 @@ class MusicViewModel @Inject constructor(
                         error = e.message
                     )
                 }
-                .collect { songs ->
+                .collect { catalog ->
+                    lastSearch = null
                     _uiState.value = _uiState.value.copy(
-                        songs = songs,
+                        catalog = catalog,
                         isLoading = false
                     )
                 }
@@ -140,9 +167,21 @@ class MusicViewModel @Inject constructor(
     }
 
     private fun loadFolders() {
-        viewModelScope.launch {
-            repository.getAllFolders().collect { folders ->
-                _uiState.value = _uiState.value.copy(folders = folders)
+        showFolder(null)
+    }
+
+    // Lists the children of [folder], or the root folders when null
+    private fun showFolder(folder: Folder?) {
+        foldersJob?.cancel()
+        _uiState.value = _uiState.value.copy(currentFolder = folder)
+        foldersJob = viewModelScope.launch {
+            val folders = if (folder == null) {
+                repository.getAllFolders()
+            } else {
+                repository.getSubfolders(folder.path)
+            }
+            folders.collect { list ->
+                _uiState.value = _uiState.value.copy(folders = list)
             }
         }
     }
@@ -204,19 +243,53 @@ class MusicViewModel @Inject constructor(
 
     // Search
     fun search(query: String) {
+        searchQuery.value = query
+    }
+
+    // Typing settles for SEARCH_DEBOUNCE_MS before a search runs, and a newer
+    // query cancels the one in flight so stale results never land. A query
+    // that only refines the last one narrows its results instead of searching again.
+    @OptIn(FlowPreview::class, ExperimentalCoroutinesApi::class)
+    private fun observeSearch() {
         viewModelScope.launch {
-            if (query.isBlank()) {
-                _uiState.value = _uiState.value.copy(searchResults = emptyList(), searchQuery = "")
-            } else {
-                val results = repository.searchSongs(query)
-                _uiState.value = _uiState.value.copy(
-                    searchResults = results,
-                    searchQuery = query
-                )
-            }
+            searchQuery
+                .debounce { if (it.isBlank()) 0L else SEARCH_DEBOUNCE_MS }
+                .distinctUntilChanged()
+                .mapLatest { query -> runSearch(query) }
+                .collect { result ->
+                    _uiState.value = _uiState.value.copy(
+                        searchResults = result.songs,
+                        searchHits = result.hits,
+                        searchQuery = result.query,
+                        searchLatencyMs = result.latencyMs
+                    )
+                }
         }
     }
 
+    private suspend fun runSearch(query: String): SearchResult {
+        if (query.isBlank()) return SearchResult("", emptyList(), emptyList(), 0f).also { lastSearch = null }
+        val start = System.nanoTime()
+        val previous = lastSearch
+        // Only exact hits survive narrowing. If none do, the last query was already
+        // down to typo matches, and those need a fresh search.
+        val narrowed = if (previous != null) {
+            repository.narrowSearch(previous.songs, previous.query, query)
+        } else {
+            emptyList()
+        }
+        val songs = narrowed.ifEmpty { repository.searchSongs(query) }
+        currentCoroutineContext().ensureActive()
+        // Songs already have their own list below these
+        val hits = repository.searchEntities(query, SEARCH_HIT_LIMIT)
+        val latencyMs = (System.nanoTime() - start) / 1_000_000f
+        val mode = if (narrowed.isNotEmpty()) "narrowed" else "full"
+        val cache = repository.getSearchCacheStats()
+        Log.d(TAG, "search \"$query\" ($mode): ${songs.size} results in ${latencyMs}ms, " +
+            "cache hit rate ${cache.hitRate} (${cache.size}/${cache.maxSize})")
+        return SearchResult(query, songs, hits, latencyMs).also { lastSearch = it }
+    }
+
     // Favorites
     fun toggleFavorite(songId: Long) {
         viewModelScope.launch {
@@ -237,6 +310,26 @@ class MusicViewModel @Inject constructor(
         }
     }
 
+    // إضافة مجموعة أغانٍ (ألبوم كامل أو نتائج بحث) في عملية واحدة
+    fun addSongsToPlaylist(songs: List<Song>, playlistId: Long) {
+        viewModelScope.launch {
+            repository.addSongsToPlaylist(songs.map { it.id }, playlistId)
+        }
+    }
+
+    fun removeSongsFromPlaylist(songs: List<Song>, playlistId: Long) {
+        viewModelScope.launch {
+            repository.removeSongsFromPlaylist(songs.map { it.id }, playlistId)
+        }
+    }
+
+    // إعادة الترتيب بالسحب: تُكتب أغنية واحدة فقط
+    fun movePlaylistSong(playlistId: Long, from: Int, to: Int) {
+        viewModelScope.launch {
+            repository.movePlaylistSong(playlistId, from, to)
+        }
+    }
+
     // ===== Timer Functions (مُحسَّنة مع عداد تنازلي حقيقي) =====
 
     fun setSleepTimer(minutes: Int) {
@@ -348,14 +441,75 @@ class MusicViewModel @Inject constructor(
         setStartTimer(minutes)
     }
 
-    // Album songs
-    fun getAlbumSongs(albumId: Long): List<Song> {
-        return _uiState.value.songs.filter { it.albumId == albumId }
+    /** Plays an album in track order. */
+    fun playAlbum(album: Album, onStarted: () -> Unit = {}) {
+        viewModelScope.launch {
+            val songs = repository.getSongsByAlbum(album.id)
+            if (songs.isNotEmpty()) {
+                playSongs(songs)
+                onStarted()
+            }
+        }
+    }
+
+    /** Plays an artist's songs in album and track order. */
+    fun playArtist(artist: Artist, onStarted: () -> Unit = {}) {
+        viewModelScope.launch {
+            val songs = repository.getSongsByArtist(artist.id)
+            if (songs.isNotEmpty()) {
+                playSongs(songs)
+                onStarted()
+            }
+        }
+    }
+
+    /** Plays a playlist from its first song. */
+    fun playPlaylist(playlist: Playlist, onStarted: () -> Unit = {}) {
+        viewModelScope.launch {
+            val songs = repository.getPlaylistSongs(playlist.id)
+            if (songs.isNotEmpty()) {
+                playSongs(songs)
+                onStarted()
+            }
+        }
     }
 
-    // Folder songs
-    fun getFolderSongs(folderPath: String): List<Song> {
-        return _uiState.value.songs.filter { it.path.startsWith(folderPath) }
+    // قوائم من سجل التشغيل
+    fun playHistoryList(list: PlayHistoryList, onStarted: () -> Unit = {}) {
+        viewModelScope.launch {
+            val songs = when (list) {
+                PlayHistoryList.MOST_PLAYED -> repository.getMostPlayed(HISTORY_LIST_LIMIT)
+                PlayHistoryList.RECENTLY_PLAYED -> repository.getRecentlyPlayed(HISTORY_LIST_LIMIT)
+                PlayHistoryList.FORGOTTEN -> repository.getForgotten(HISTORY_LIST_LIMIT)
+            }
+            if (songs.isNotEmpty()) {
+                playSongs(songs)
+                onStarted()
+            }
+        }
+    }
+
+    // Folders
+    fun openFolder(folder: Folder) = showFolder(folder)
+
+    fun navigateUpFolder() {
+        val parentPath = _uiState.value.currentFolder?.parentPath
+        if (parentPath == null) {
+            showFolder(null)
+        } else {
+            viewModelScope.launch { showFolder(repository.getFolder(parentPath)) }
+        }
+    }
+
+    /** Plays every song under [folder], including its subfolders. */
+    fun playFolder(folder: Folder, onStarted: () -> Unit = {}) {
+        viewModelScope.launch {
+            val songs = repository.getSongsByFolder(folder.path)
+            if (songs.isNotEmpty()) {
+                playSongs(songs)
+                onStarted()
+            }
+        }
     }
 
     override fun onCleared() {
@@ -367,15 +521,33 @@ class MusicViewModel @Inject constructor(
     }
 }
 
+private class SearchResult(
+    val query: String,
+    val songs: List<Song>,
+    val hits: List<SearchHit>,
+    val latencyMs: Float
+)
+
+enum class PlayHistoryList { MOST_PLAYED, RECENTLY_PLAYED, FORGOTTEN }
+
 data class MusicUiState(
-    val songs: List<Song> = emptyList(),
+    // Compared by generation, so updating any other field stays cheap
+    val catalog: SongCatalog = SongCatalog.EMPTY,
     val albums: List<Album> = emptyList(),
     val artists: List<Artist> = emptyList(),
     val folders: List<Folder> = emptyList(),
+    val currentFolder: Folder? = null,
     val playlists: List<Playlist> = emptyList(),
     val currentSong: Song? = null,
     val searchResults: List<Song> = emptyList(),
+    // Albums, artists, folders and playlists matching the query, best first
+    val searchHits: List<SearchHit> = emptyList(),
     val searchQuery: String = "",
+    // How long the last search took, for profiling
+    val searchLatencyMs: Float = 0f,
     val isLoading: Boolean = false,
     val error: String? = null
-)
+) {
+    val songs: List<Song>
+        get() = catalog.songs
+}
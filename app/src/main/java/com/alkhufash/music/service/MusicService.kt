@@ -13,6 +13,7 @@ import androidx.media3.session.MediaSessionService
 import androidx.media3.session.SessionCommand
 import androidx.media3.session.SessionResult
 import com.alkhufash.music.MainActivity
+import com.alkhufash.music.data.history.PlayHistory
 import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.ListenableFuture
 import dagger.hilt.android.AndroidEntryPoint
@@ -21,8 +22,12 @@ import javax.inject.Inject
 @AndroidEntryPoint
 class MusicService : MediaSessionService() {
 
+    @Inject
+    lateinit var playHistory: PlayHistory
+
     private var mediaSession: MediaSession? = null
     private lateinit var player: ExoPlayer
+    private lateinit var playbackTracker: PlaybackTracker
 
     companion object {
         const val ACTION_PLAY = "com.alkhufash.music.PLAY"
@@ -48,6 +53,10 @@ class MusicService : MediaSessionService() {
             .setAudioAttributes(audioAttributes, true)
             .setHandleAudioBecomingNoisy(true)
             .build()
+
+        // سجل التشغيل: حدث لكل أغنية تُسمع أو تُتخطى
+        playbackTracker = PlaybackTracker(player, playHistory)
+        player.addListener(playbackTracker)
     }
 
     private fun initializeMediaSession() {
@@ -69,6 +78,8 @@ class MusicService : MediaSessionService() {
 
     override fun onDestroy() {
         mediaSession?.run {
+            playbackTracker.release()
+            player.removeListener(playbackTracker)
             player.release()
             release()
             mediaSession = null
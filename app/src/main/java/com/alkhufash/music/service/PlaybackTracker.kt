@@ -0,0 +1,111 @@
+package com.alkhufash.music.service
+
+import android.os.SystemClock
+import androidx.media3.common.C
+import androidx.media3.common.MediaItem
+import androidx.media3.common.Player
+import androidx.media3.common.Timeline
+import com.alkhufash.music.data.db.PlayEventEntity
+import com.alkhufash.music.data.history.PlayHistory
+
+/**
+ * يتابع المشغل ويسجّل حدثاً لكل أغنية عند انتهاء تشغيلها:
+ * وقت البدء والانتهاء، ومدة الاستماع الفعلية دون فترات الإيقاف المؤقت،
+ * وهل تُخطّيت قبل أن تُسمع بما يكفي.
+ */
+class PlaybackTracker(
+    private val player: Player,
+    private val history: PlayHistory
+) : Player.Listener {
+
+    companion object {
+        private const val NONE = -1L
+        // تُحتسب الأغنية مسموعة بعد نصف مدتها أو أربع دقائق، أيهما أقل
+        private const val MAX_LISTEN_TO_COUNT_MS = 4 * 60_000L
+    }
+
+    private var songId = NONE
+    private var startedAt = 0L
+    private var durationMs = C.TIME_UNSET
+    private var listenedMs = 0L
+    // وقت بدء مقطع التشغيل الحالي، أو -1 أثناء الإيقاف
+    private var playingSince = -1L
+
+    override fun onIsPlayingChanged(isPlaying: Boolean) {
+        if (isPlaying) {
+            if (songId == NONE) begin()
+            refreshDuration()
+            playingSince = SystemClock.elapsedRealtime()
+        } else {
+            stopClock()
+        }
+    }
+
+    override fun onMediaItemTransition(mediaItem: MediaItem?, reason: Int) {
+        finish(
+            completed = reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO ||
+                reason == Player.MEDIA_ITEM_TRANSITION_REASON_REPEAT
+        )
+        if (player.isPlaying) {
+            begin()
+            playingSince = SystemClock.elapsedRealtime()
+        }
+    }
+
+    override fun onPlaybackStateChanged(playbackState: Int) {
+        when (playbackState) {
+            Player.STATE_READY -> refreshDuration()
+            Player.STATE_ENDED -> finish(completed = true)
+        }
+    }
+
+    override fun onTimelineChanged(timeline: Timeline, reason: Int) {
+        refreshDuration()
+    }
+
+    /** يسجّل الأغنية الجارية قبل إغلاق الخدمة. */
+    fun release() {
+        finish(completed = false)
+    }
+
+    private fun begin() {
+        songId = player.currentMediaItem?.mediaId?.toLongOrNull() ?: NONE
+        startedAt = System.currentTimeMillis()
+        durationMs = player.duration
+        listenedMs = 0L
+    }
+
+    // في الانتقال المتصل يبقى المشغل يعمل، فقد لا تُعرف مدة الأغنية
+    // الجديدة عند بدئها وتصل لاحقاً مع تحديث الخط الزمني أو الجاهزية
+    private fun refreshDuration() {
+        if (songId == NONE || player.currentMediaItem?.mediaId?.toLongOrNull() != songId) return
+        if (player.duration != C.TIME_UNSET) durationMs = player.duration
+    }
+
+    private fun stopClock() {
+        if (playingSince < 0) return
+        listenedMs += SystemClock.elapsedRealtime() - playingSince
+        playingSince = -1L
+    }
+
+    private fun finish(completed: Boolean) {
+        stopClock()
+        if (songId != NONE && listenedMs > 0) {
+            val enough = if (durationMs == C.TIME_UNSET) {
+                MAX_LISTEN_TO_COUNT_MS
+            } else {
+                minOf(durationMs / 2, MAX_LISTEN_TO_COUNT_MS)
+            }
+            history.record(
+                PlayEventEntity(
+                    songId = songId,
+                    startedAt = startedAt,
+                    endedAt = System.currentTimeMillis(),
+                    listenedMs = listenedMs,
+                    skipped = !completed && listenedMs < enough
+                )
+            )
+        }
+        songId = NONE
+    }
+}
@@ -0,0 +1,59 @@
+package com.alkhufash.music.worker
+
+import android.content.Context
+import android.util.Log
+import androidx.hilt.work.HiltWorker
+import androidx.work.CoroutineWorker
+import androidx.work.ExistingWorkPolicy
+import androidx.work.OneTimeWorkRequestBuilder
+import androidx.work.WorkManager
+import androidx.work.WorkerParameters
+import com.alkhufash.music.data.db.MusicDao
+import dagger.assisted.Assisted
+import dagger.assisted.AssistedInject
+import java.util.concurrent.TimeUnit
+
+/**
+ * يجمع أحداث التشغيل الجديدة في إحصاءات الأغاني والأيام،
+ * فتصبح قوائم "الأكثر تشغيلاً" و"شُغّلت مؤخراً" قراءات مفهرسة.
+ */
+@HiltWorker
+class PlayStatsWorker @AssistedInject constructor(
+    @Assisted context: Context,
+    @Assisted params: WorkerParameters,
+    private val musicDao: MusicDao
+) : CoroutineWorker(context, params) {
+
+    companion object {
+        const val WORK_NAME = "play_stats_rollup"
+        private const val TAG = "PlayStatsWorker"
+        // تأخير بسيط ليُجمع عدة أحداث في تشغيل واحد
+        private const val ROLLUP_DELAY_SECONDS = 30L
+
+        // إبقاء: تجميع واحد منتظر يكفي لكل ما يصل قبله، فلا تطول سلسلة الأعمال
+        // مع كل حدث. الحدث الذي يصل والعامل يعمل يلتقطه العامل نفسه قبل أن ينتهي
+        fun schedule(context: Context) = enqueue(context, ExistingWorkPolicy.KEEP)
+
+        private fun enqueue(context: Context, policy: ExistingWorkPolicy) {
+            val request = OneTimeWorkRequestBuilder<PlayStatsWorker>()
+                .setInitialDelay(ROLLUP_DELAY_SECONDS, TimeUnit.SECONDS)
+                .build()
+            WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, policy, request)
+        }
+    }
+
+    override suspend fun doWork(): Result {
+        return try {
+            musicDao.rollUpPlayEvents()
+            // أحداث وصلت أثناء التجميع طُلب لها تشغيل والعامل يعمل فأُهمل مع KEEP؛
+            // تُلحق بتشغيل لاحق واحد، ولا يُلحق شيء إن لم يصل جديد
+            if (musicDao.getLastPlayEventId() > (musicDao.getRolledUpEventId() ?: 0)) {
+                enqueue(applicationContext, ExistingWorkPolicy.APPEND_OR_REPLACE)
+            }
+            Result.success()
+        } catch (e: Exception) {
+            Log.e(TAG, "فشل تجميع إحصاءات التشغيل", e)
+            Result.retry()
+        }
+    }
+}
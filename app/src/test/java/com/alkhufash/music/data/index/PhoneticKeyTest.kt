@@ -0,0 +1,61 @@
+package com.alkhufash.music.data.index
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class PhoneticKeyTest {
+
+    @Test
+    fun arabicAndLatinSpellingsShareAKey() {
+        assertSameKey("mr", "عمرو", "amr", "Amr")
+        assertSameKey("db", "دياب", "diab", "Diab")
+        assertSameKey("mhmd", "محمد", "mohammed", "Muhammad")
+        assertSameKey("ftm", "فاطمة", "fatma", "fatmah")
+        assertSameKey("frz", "فيروز", "fairuz", "fairouz")
+        assertSameKey("hb", "حبيبي", "habibi")
+        assertSameKey("sk", "الشوق", "shouq")
+    }
+
+    @Test
+    fun articleIsDroppedOnlyFromLongerWords() {
+        assertEquals("shr", keyOf("الساهر"))
+        assertEquals("l", keyOf("ال"))
+        assertEquals("ls", keyOf("الش"))
+        assertEquals("sk", keyOf("الشوق"))
+    }
+
+    @Test
+    fun keyReachesMinLengthOnlyOnceAWordHasTwoConsonants() {
+        assertEquals("m", keyOf("am"))
+        assertEquals("mr", keyOf("amr"))
+        assertTrue(keyOf("am").length < PhoneticKey.MIN_LENGTH)
+        assertTrue(keyOf("amr").length >= PhoneticKey.MIN_LENGTH)
+    }
+
+    @Test
+    fun digraphChangesTheSoundOfItsFirstLetter() {
+        assertEquals("k", keyOf("c"))
+        assertEquals("s", keyOf("ch"))
+        assertEquals("sr", keyOf("chr"))
+    }
+
+    // Each pair extends the query as typed, but the longer one can match songs
+    // by a key the shorter one never looked up
+    @Test
+    fun extendingAcrossAKeyBoundaryDoesNotNarrow() {
+        assertFalse(SearchIndex.narrows("am", "amr"))
+        assertFalse(SearchIndex.narrows("الش", "الشوق"))
+        assertFalse(SearchIndex.narrows("c", "chr"))
+        assertTrue(SearchIndex.narrows("amr", "amro"))
+    }
+
+    private fun keyOf(spelling: String): String = PhoneticKey.of(SearchNormalizer.normalize(spelling))
+
+    private fun assertSameKey(expected: String, vararg spellings: String) {
+        for (spelling in spellings) {
+            assertEquals(spelling, expected, keyOf(spelling))
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.alkhufash.music.data.index
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class SearchNormalizerTest {
+
+    @Test
+    fun hamzaAndMaddaFormsOfAlefFoldToBareAlef() {
+        assertSameTerm("احمد", "أحمد", "إحمد")
+        assertSameTerm("امال", "آمال")
+        assertSameTerm("الله", "ٱلله")
+    }
+
+    @Test
+    fun tashkeelIsStripped() {
+        assertSameTerm("محمد", "مُحَمَّد")
+        assertSameTerm("كتاب", "كِتَابٌ")
+        assertSameTerm("قران", "قُرْآن")
+    }
+
+    @Test
+    fun alefMaqsuraFoldsToYa() {
+        assertSameTerm("علي", "على")
+        assertSameTerm("مصطفي", "مصطفی")
+    }
+
+    @Test
+    fun taMarbutaFoldsToHa() {
+        assertSameTerm("مدرسه", "مدرسة")
+        assertSameTerm("فاطمه", "فاطمة")
+    }
+
+    @Test
+    fun tatweelIsStripped() {
+        assertSameTerm("جميل", "جـميـل", "جــــميل")
+    }
+
+    @Test
+    fun latinIsLowercased() {
+        assertEquals("amr diab", SearchNormalizer.normalize("Amr DIAB"))
+        assertEquals("éclair", SearchNormalizer.normalize("Éclair"))
+    }
+
+    @Test
+    fun otherCharactersAreKept() {
+        assertEquals("track 07 - يا ليل", SearchNormalizer.normalize("Track 07 - يا ليل"))
+    }
+
+    private fun assertSameTerm(expected: String, vararg spellings: String) {
+        for (spelling in spellings) {
+            assertEquals(spelling, expected, SearchNormalizer.normalize(spelling))
+        }
+    }
+}